@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013-2015 Makoto YUI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.jdbc.storagehandler;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Adjusts the size of JDBC batches in the AIMD manner: grows it additively while batches
+ * complete within the target latency and throughput keeps up, and halves it when a batch
+ * takes longer than the target.
+ *
+ * @see Constants#OUTPUT_BATCH_SIZE
+ * @see Constants#OUTPUT_BATCH_LATENCY
+ */
+public final class BatchSizeController {
+
+    // decrease the size when throughput falls below this ratio of the previous batch
+    private static final double THROUGHPUT_TOLERANCE = 0.8d;
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_BATCH_SIZE_MIN = 100;
+    public static final int DEFAULT_BATCH_SIZE_MAX = 10000;
+    public static final long DEFAULT_BATCH_LATENCY = 1000L;
+
+    private final int minSize;
+    private final int maxSize;
+    private final int step;
+    private final long targetLatencyNanos;
+
+    private int batchSize;
+    private double lastThroughput = -1d;
+
+    public BatchSizeController(int initialSize, int minSize, int maxSize, long targetLatencyMillis) {
+        if(minSize < 1 || maxSize < minSize) {
+            throw new IllegalArgumentException("Illegal batch size bounds: [" + minSize + ", "
+                    + maxSize + ']');
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.step = minSize;
+        this.targetLatencyNanos = targetLatencyMillis * 1000000L;
+        this.batchSize = Math.min(Math.max(initialSize, minSize), maxSize);
+    }
+
+    public static BatchSizeController newInstance(Configuration conf) {
+        int min = conf.getInt(Constants.OUTPUT_BATCH_SIZE_MIN, DEFAULT_BATCH_SIZE_MIN);
+        int max = conf.getInt(Constants.OUTPUT_BATCH_SIZE_MAX, DEFAULT_BATCH_SIZE_MAX);
+        int initial = conf.getInt(Constants.OUTPUT_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        long latency = conf.getLong(Constants.OUTPUT_BATCH_LATENCY, DEFAULT_BATCH_LATENCY);
+        return new BatchSizeController(initial, min, max, latency);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param rows the number of rows in the executed batch
+     * @param elapsedNanos the time taken by executeBatch
+     */
+    public void update(int rows, long elapsedNanos) {
+        final double throughput = rows / (double) Math.max(elapsedNanos, 1L);
+        if(elapsedNanos > targetLatencyNanos) {
+            this.batchSize = Math.max(minSize, batchSize / 2);
+        } else if(lastThroughput > 0d && throughput < lastThroughput * THROUGHPUT_TOLERANCE) {
+            this.batchSize = Math.max(minSize, batchSize - step);
+        } else {
+            this.batchSize = Math.min(maxSize, batchSize + step);
+        }
+        this.lastThroughput = throughput;
+    }
+
+}
@@ -22,7 +22,43 @@ public final class Constants {
 
     public static final String LIST_COLUMNS = "columns";
     public static final String LIST_COLUMN_TYPES = "columns.types";
-    
+
+    // org.apache.hadoop.hive.conf.HiveConf.ConfVars.HIVEQUERYID
+    public static final String HIVE_QUERY_ID = "hive.query.id";
+    // org.apache.hadoop.hive.conf.HiveConf.ConfVars.POSTEXECHOOKS
+    public static final String HIVE_POST_EXEC_HOOKS = "hive.exec.post.hooks";
+    // org.apache.hadoop.hive.conf.HiveConf.ConfVars.ONFAILUREHOOKS
+    public static final String HIVE_FAILURE_HOOKS = "hive.exec.failure.hooks";
+    // org.apache.hadoop.hive.conf.HiveConf.ConfVars.HIVESAMPLERANDOMNUM
+    public static final String HIVE_SAMPLE_SEED = "hive.sample.seednumber";
+
+    public static final String MAP_SPECULATIVE = "mapred.map.tasks.speculative.execution";
+    public static final String REDUCE_SPECULATIVE = "mapred.reduce.tasks.speculative.execution";
+
+    // table properties prefixed with "mapred.jdbc." are passed through to the jobConf
+
+    public static final String DIALECT_CLASS = "mapred.jdbc.dialect.class";
+    public static final String INPUT_RESUME_KEY = "mapred.jdbc.input.resume.key";
+    public static final String INPUT_RESUME_RETRIES = "mapred.jdbc.input.resume.retries";
+    public static final String INPUT_RESUME_BACKOFF = "mapred.jdbc.input.resume.backoff.ms";
+    public static final String INPUT_WRITABLES = "mapred.jdbc.input.writables";
+    public static final String INPUT_LOB_THRESHOLD = "mapred.jdbc.input.lob.threshold";
+    public static final String INPUT_PROFILE = "mapred.jdbc.input.profile";
+    public static final String INPUT_PROFILE_EXPLAIN = "mapred.jdbc.input.profile.explain";
+    public static final String INPUT_SAMPLE_PERCENT = "mapred.jdbc.input.sample.percent";
+    public static final String INPUT_SAMPLE_SEED = "mapred.jdbc.input.sample.seed";
+    public static final String INPUT_SAMPLE_METHOD = "mapred.jdbc.input.sample.method";
+    public static final String INPUT_SAMPLE_COLUMN = "mapred.jdbc.input.sample.column";
+    public static final String INPUT_PARTITIONS = "mapred.jdbc.input.partitions";
+    public static final String INPUT_PUSHDOWN_STRING_RANGES = "mapred.jdbc.input.pushdown.string.ranges";
+    public static final String OUTPUT_BATCH_SIZE = "mapred.jdbc.output.batch.size";
+    public static final String OUTPUT_BATCH_SIZE_MIN = "mapred.jdbc.output.batch.size.min";
+    public static final String OUTPUT_BATCH_SIZE_MAX = "mapred.jdbc.output.batch.size.max";
+    public static final String OUTPUT_BATCH_LATENCY = "mapred.jdbc.output.batch.latency.ms";
+    public static final String OUTPUT_STAGING = "mapred.jdbc.output.staging";
+    public static final String OUTPUT_BULKLOAD = "mapred.jdbc.output.bulkload";
+    public static final String OUTPUT_UPSERT_KEYS = "mapred.jdbc.output.upsert.keys";
+
     private Constants() {}
 
 }
@@ -18,25 +18,115 @@ package org.apache.hadoop.hive.jdbc.storagehandler;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.sql.Array;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.Arrays;
+import java.util.List;
 
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.hive.serde2.io.TimestampWritable;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.lib.db.DBWritable;
 
-public class DbRecordWritable implements Writable, DBWritable {
+/**
+ * A row of a JDBC table.
+ * 
+ * When "mapred.jdbc.input.lob.threshold" is set, string and binary columns are read into a
+ * reused Text and BytesWritable, and those declared larger than the threshold (or of unknown
+ * size) are read through a stream instead of materialized by the driver first.
+ * 
+ * When "mapred.jdbc.input.writables" is set, columns of any primitive type are read into
+ * reused writables, e.g., IntWritable and TimestampWritable.
+ *
+ * @see Constants#INPUT_LOB_THRESHOLD
+ * @see Constants#INPUT_WRITABLES
+ */
+public class DbRecordWritable implements Writable, DBWritable, Configurable {
+    private static final int CHUNK_SIZE = 8192;
 
     private Object[] columnValues; // primitive java Object or java.util.List
     private int[] columnTypes;
+    private int[] elementTypes; // SQL types of array elements, if known
+
+    // cached per ResultSet
+    private ResultSet resultSet;
+    private int[] resultTypes;
+    private boolean[] resultStreamed;
+
+    private JdbcDialect dialect;
+
+    private Configuration conf;
+    private boolean writables = false;
+    private int lobThreshold = -1;
+    // writables reused across rows, kept while a column is NULL
+    private Object[] writableBuffers;
+    // pooled buffers for streamed columns
+    private CharBuffer charBuffer;
+    private ByteBuffer encodeBuffer;
+    private CharsetEncoder encoder;
+    private byte[] textBuffer;
 
     public DbRecordWritable() {}
 
     public DbRecordWritable(int[] types) {
+        this(types, null);
+    }
+
+    public DbRecordWritable(int[] types, int[] elementTypes) {
         this.columnValues = new Object[types.length];
         this.columnTypes = types;
+        this.elementTypes = elementTypes;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    /**
+     * @see org.apache.hadoop.util.ReflectionUtils#newInstance(Class, Configuration)
+     */
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        this.writables = (conf != null) && conf.getBoolean(Constants.INPUT_WRITABLES, false);
+        this.lobThreshold = (conf == null) ? -1 : conf.getInt(Constants.INPUT_LOB_THRESHOLD, -1);
+    }
+
+    /**
+     * Sets all the columns to NULL.
+     */
+    public void reset(int numColumns) {
+        if(columnValues == null || columnValues.length != numColumns) {
+            this.columnValues = new Object[numColumns];
+            this.columnTypes = new int[numColumns];
+            Arrays.fill(columnTypes, Types.NULL);
+        } else {
+            Arrays.fill(columnValues, null);
+        }
     }
 
     public void clear() {
@@ -51,25 +141,326 @@ public class DbRecordWritable implements Writable, DBWritable {
         return columnValues[i];
     }
 
+    /**
+     * @return the approximate size of the column values in bytes
+     */
+    public long getApproximateSize() {
+        if(columnValues == null) {
+            return 0L;
+        }
+        long size = 0L;
+        for(Object v : columnValues) {
+            if(v == null) {
+                continue;
+            } else if(v instanceof String) {
+                size += ((String) v).length();
+            } else if(v instanceof byte[]) {
+                size += ((byte[]) v).length;
+            } else if(v instanceof Text) {
+                size += ((Text) v).getLength();
+            } else if(v instanceof BytesWritable) {
+                size += ((BytesWritable) v).getLength();
+            } else if(v instanceof List) {
+                size += 8L * ((List<?>) v).size();
+            } else {
+                size += 8L;
+            }
+        }
+        return size;
+    }
+
     @Override
     public void readFields(ResultSet rs) throws SQLException {
-        final ResultSetMetaData meta = rs.getMetaData();
-        final int cols = meta.getColumnCount();
-        final Object[] columns = new Object[cols];
-        final int[] types = new int[cols];
-        for(int i = 0; i < cols; i++) {
-            Object col = rs.getObject(i + 1);
-            columns[i] = col;
-            if(col == null) {
+        if(rs != resultSet) {
+            final ResultSetMetaData meta = rs.getMetaData();
+            final int cols = meta.getColumnCount();
+            final int[] types = new int[cols];
+            final boolean[] streamed = new boolean[cols];
+            for(int i = 0; i < cols; i++) {
                 types[i] = meta.getColumnType(i + 1);
+                if(lobThreshold >= 0 && isLob(HiveJdbcBridgeUtils.toHiveSqlType(types[i]))) {
+                    int precision = meta.getPrecision(i + 1);
+                    streamed[i] = precision <= 0 || precision > lobThreshold;
+                }
             }
+            this.resultSet = rs;
+            this.resultTypes = types;
+            this.resultStreamed = streamed;
         }
-        this.columnValues = columns;
-        this.columnTypes = types;
+        final int[] types = resultTypes;
+        final int cols = types.length;
+        if(columnValues == null || columnValues.length != cols) {
+            this.columnValues = new Object[cols];
+            this.columnTypes = new int[cols];
+        }
+        if(writableBuffers == null || writableBuffers.length != cols) {
+            this.writableBuffers = new Object[cols];
+        }
+        final Object[] columns = columnValues;
+        for(int i = 0; i < cols; i++) {
+            final int type = HiveJdbcBridgeUtils.toHiveSqlType(types[i]);
+            if(types[i] == Types.ARRAY) {
+                columns[i] = readArray(rs.getArray(i + 1));
+            } else if(writables || (lobThreshold >= 0 && isLob(type))) {
+                columns[i] = readWritable(rs, i, type);
+            } else {
+                columns[i] = rs.getObject(i + 1);
+            }
+            columnTypes[i] = type;
+        }
+    }
+
+    /**
+     * @return a writable reused for the column, or null
+     */
+    private Object readWritable(ResultSet rs, int i, int type) throws SQLException {
+        final int column = i + 1;
+        final Object buf = writableBuffers[i];
+        final Object w;
+        switch(type) {
+            case Types.VARCHAR:
+                w = readText(rs, column, resultStreamed[i], buf);
+                break;
+            case Types.BINARY:
+                w = readBytes(rs, column, resultStreamed[i], buf);
+                break;
+            case Types.BOOLEAN: {
+                boolean v = rs.getBoolean(column);
+                if(rs.wasNull()) {
+                    return null;
+                }
+                BooleanWritable bw = (buf instanceof BooleanWritable) ? (BooleanWritable) buf
+                        : new BooleanWritable();
+                bw.set(v);
+                w = bw;
+                break;
+            }
+            case Types.TINYINT: {
+                byte v = rs.getByte(column);
+                if(rs.wasNull()) {
+                    return null;
+                }
+                ByteWritable bw = (buf instanceof ByteWritable) ? (ByteWritable) buf
+                        : new ByteWritable();
+                bw.set(v);
+                w = bw;
+                break;
+            }
+            case Types.SMALLINT: {
+                short v = rs.getShort(column);
+                if(rs.wasNull()) {
+                    return null;
+                }
+                ShortWritable sw = (buf instanceof ShortWritable) ? (ShortWritable) buf
+                        : new ShortWritable();
+                sw.set(v);
+                w = sw;
+                break;
+            }
+            case Types.INTEGER: {
+                int v = rs.getInt(column);
+                if(rs.wasNull()) {
+                    return null;
+                }
+                IntWritable iw = (buf instanceof IntWritable) ? (IntWritable) buf
+                        : new IntWritable();
+                iw.set(v);
+                w = iw;
+                break;
+            }
+            case Types.BIGINT: {
+                long v = rs.getLong(column);
+                if(rs.wasNull()) {
+                    return null;
+                }
+                LongWritable lw = (buf instanceof LongWritable) ? (LongWritable) buf
+                        : new LongWritable();
+                lw.set(v);
+                w = lw;
+                break;
+            }
+            case Types.FLOAT: {
+                float v = rs.getFloat(column);
+                if(rs.wasNull()) {
+                    return null;
+                }
+                FloatWritable fw = (buf instanceof FloatWritable) ? (FloatWritable) buf
+                        : new FloatWritable();
+                fw.set(v);
+                w = fw;
+                break;
+            }
+            case Types.DOUBLE: {
+                double v = rs.getDouble(column);
+                if(rs.wasNull()) {
+                    return null;
+                }
+                DoubleWritable dw = (buf instanceof DoubleWritable) ? (DoubleWritable) buf
+                        : new DoubleWritable();
+                dw.set(v);
+                w = dw;
+                break;
+            }
+            case Types.TIMESTAMP: {
+                Timestamp v = rs.getTimestamp(column);
+                if(v == null) {
+                    return null;
+                }
+                TimestampWritable tw = (buf instanceof TimestampWritable) ? (TimestampWritable) buf
+                        : new TimestampWritable();
+                tw.set(v);
+                w = tw;
+                break;
+            }
+            default:
+                return rs.getObject(column);
+        }
+        if(w != null) {
+            writableBuffers[i] = w;
+        }
+        return w;
+    }
+
+    private static boolean isLob(int hiveSqlType) {
+        return hiveSqlType == Types.VARCHAR || hiveSqlType == Types.BINARY;
+    }
+
+    private Text readText(ResultSet rs, int column, boolean streamed, Object reuse)
+            throws SQLException {
+        if(!streamed) {
+            String s = rs.getString(column);
+            if(s == null) {
+                return null;
+            }
+            Text text = (reuse instanceof Text) ? (Text) reuse : new Text();
+            text.set(s);
+            return text;
+        }
+        Reader reader = rs.getCharacterStream(column);
+        if(reader == null) {
+            return null;
+        }
+        Text text = (reuse instanceof Text) ? (Text) reuse : new Text();
+        try {
+            try {
+                readUTF8(reader, text);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new SQLException(e.getMessage());
+        }
+        return text;
+    }
+
+    /**
+     * Encodes the characters chunk by chunk into a pooled buffer, which is then copied to the
+     * Text at once; Text#append would reallocate the Text on every chunk.
+     */
+    private void readUTF8(Reader reader, Text text) throws IOException {
+        if(encoder == null) {
+            this.encoder = Charset.forName("UTF-8").newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.charBuffer = CharBuffer.allocate(CHUNK_SIZE);
+            this.encodeBuffer = ByteBuffer.allocate(CHUNK_SIZE
+                    * (int) Math.ceil(encoder.maxBytesPerChar()));
+            this.textBuffer = new byte[CHUNK_SIZE];
+        }
+        final CharBuffer cb = charBuffer;
+        final ByteBuffer bb = encodeBuffer;
+        encoder.reset();
+        cb.clear();
+        int length = 0;
+        boolean eof = false;
+        while(!eof) {
+            int n = reader.read(cb.array(), cb.position(), cb.remaining());
+            if(n == -1) {
+                eof = true;
+            } else {
+                cb.position(cb.position() + n);
+            }
+            cb.flip();
+            bb.clear();
+            encoder.encode(cb, bb, eof);
+            if(eof) {
+                encoder.flush(bb);
+            }
+            // keeps an unpaired high surrogate for the next chunk
+            cb.compact();
+            int encoded = bb.position();
+            if(length + encoded > textBuffer.length) {
+                this.textBuffer = Arrays.copyOf(textBuffer, Math.max(length + encoded, textBuffer.length * 2));
+            }
+            System.arraycopy(bb.array(), 0, textBuffer, length, encoded);
+            length += encoded;
+        }
+        text.set(textBuffer, 0, length);
+    }
+
+    private static BytesWritable readBytes(ResultSet rs, int column, boolean streamed, Object reuse)
+            throws SQLException {
+        if(!streamed) {
+            byte[] b = rs.getBytes(column);
+            if(b == null) {
+                return null;
+            }
+            BytesWritable bytes = (reuse instanceof BytesWritable) ? (BytesWritable) reuse
+                    : new BytesWritable();
+            bytes.set(b, 0, b.length);
+            return bytes;
+        }
+        InputStream in = rs.getBinaryStream(column);
+        if(in == null) {
+            return null;
+        }
+        BytesWritable bytes = (reuse instanceof BytesWritable) ? (BytesWritable) reuse
+                : new BytesWritable();
+        try {
+            try {
+                // reads directly into the buffer of the BytesWritable
+                bytes.setSize(0);
+                byte[] buf = bytes.getBytes();
+                int length = 0;
+                while(true) {
+                    if(length == buf.length) {
+                        bytes.setSize(length);
+                        bytes.setCapacity(Math.max(length * 2, CHUNK_SIZE));
+                        buf = bytes.getBytes();
+                    }
+                    int n = in.read(buf, length, buf.length - length);
+                    if(n == -1) {
+                        break;
+                    }
+                    length += n;
+                }
+                bytes.setSize(length);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new SQLException(e.getMessage());
+        }
+        return bytes;
+    }
+
+    private static Object readArray(Array array) throws SQLException {
+        if(array == null) {
+            return null;
+        }
+        return HiveJdbcBridgeUtils.toList(array.getArray());
     }
 
     @Override
     public void write(PreparedStatement statement) throws SQLException {
+        if(dialect == null) {
+            this.dialect = JdbcDialect.getDialect(statement.getConnection(), conf);
+        }
+        write(statement, dialect);
+    }
+
+    /**
+     * @param dialect the dialect of the writer, used to bind ARRAY columns
+     */
+    public void write(PreparedStatement statement, JdbcDialect dialect) throws SQLException {
         assert (columnValues != null);
         assert (columnTypes != null);
         final Object[] r = this.columnValues;
@@ -78,12 +469,35 @@ public class DbRecordWritable implements Writable, DBWritable {
             final Object col = r[i];
             if(col == null) {
                 statement.setNull(i + 1, columnTypes[i]);
+            } else if(columnTypes[i] == Types.ARRAY) {
+                statement.setArray(i + 1, toSqlArray(statement.getConnection(), dialect, col, i));
             } else {
                 statement.setObject(i + 1, col);
             }
         }
     }
 
+    /**
+     * @param col an Object[] built by the SerDe, bound as is, or a List read from a table
+     */
+    private Array toSqlArray(Connection conn, JdbcDialect dialect, Object col, int column)
+            throws SQLException {
+        final Object[] elements = (col instanceof Object[]) ? (Object[]) col : ((List<?>) col).toArray();
+        final int elemType;
+        if(elementTypes != null) {
+            elemType = elementTypes[column];
+        } else if(elements.length > 0 && elements[0] != null) {
+            try {
+                elemType = HiveJdbcBridgeUtils.toSqlType(elements[0].getClass());
+            } catch (IOException e) {
+                throw new SQLException(e.getMessage());
+            }
+        } else {
+            elemType = Types.VARCHAR;
+        }
+        return conn.createArrayOf(dialect.getArrayElementTypeName(elemType), elements);
+    }
+
     /** {@inheritDoc} */
     @Override
     public void readFields(DataInput in) throws IOException {
@@ -91,20 +505,91 @@ public class DbRecordWritable implements Writable, DBWritable {
         if(size == -1) {
             return;
         }
-        if(columnValues == null) {
+        if(columnValues == null || columnValues.length != size) {
             this.columnValues = new Object[size];
             this.columnTypes = new int[size];
-        } else {
-            clear();
         }
         for(int i = 0; i < size; i++) {
             int sqlType = in.readInt();
             columnTypes[i] = sqlType;
-            Object v = HiveJdbcBridgeUtils.readObject(in, sqlType);
+            final Object v;
+            if(writables || (lobThreshold >= 0 && isLob(sqlType))) {
+                v = readWritable(in, sqlType, columnValues[i]);
+            } else {
+                v = HiveJdbcBridgeUtils.readObject(in, sqlType);
+            }
             columnValues[i] = v;
         }
     }
 
+    private static Object readWritable(DataInput in, int sqlType, Object reuse) throws IOException {
+        switch(sqlType) {
+            case Types.VARCHAR: {
+                Text text = (reuse instanceof Text) ? (Text) reuse : new Text();
+                text.readFields(in);
+                return text;
+            }
+            case Types.BINARY: {
+                BytesWritable bytes = (reuse instanceof BytesWritable) ? (BytesWritable) reuse
+                        : new BytesWritable();
+                int size = in.readInt();
+                bytes.setSize(size);
+                in.readFully(bytes.getBytes(), 0, size);
+                return bytes;
+            }
+            case Types.BOOLEAN: {
+                BooleanWritable w = (reuse instanceof BooleanWritable) ? (BooleanWritable) reuse
+                        : new BooleanWritable();
+                w.set(in.readBoolean());
+                return w;
+            }
+            case Types.TINYINT: {
+                ByteWritable w = (reuse instanceof ByteWritable) ? (ByteWritable) reuse
+                        : new ByteWritable();
+                w.set(in.readByte());
+                return w;
+            }
+            case Types.SMALLINT: {
+                ShortWritable w = (reuse instanceof ShortWritable) ? (ShortWritable) reuse
+                        : new ShortWritable();
+                w.set(in.readShort());
+                return w;
+            }
+            case Types.INTEGER: {
+                IntWritable w = (reuse instanceof IntWritable) ? (IntWritable) reuse
+                        : new IntWritable();
+                w.set(in.readInt());
+                return w;
+            }
+            case Types.BIGINT: {
+                LongWritable w = (reuse instanceof LongWritable) ? (LongWritable) reuse
+                        : new LongWritable();
+                w.set(in.readLong());
+                return w;
+            }
+            case Types.FLOAT: {
+                FloatWritable w = (reuse instanceof FloatWritable) ? (FloatWritable) reuse
+                        : new FloatWritable();
+                w.set(in.readFloat());
+                return w;
+            }
+            case Types.DOUBLE: {
+                DoubleWritable w = (reuse instanceof DoubleWritable) ? (DoubleWritable) reuse
+                        : new DoubleWritable();
+                w.set(in.readDouble());
+                return w;
+            }
+            case Types.TIMESTAMP: {
+                TimestampWritable w = (reuse instanceof TimestampWritable) ? (TimestampWritable) reuse
+                        : new TimestampWritable();
+                w.set(new Timestamp(in.readLong()));
+                return w;
+            }
+            default:
+                return HiveJdbcBridgeUtils.readObject(in, sqlType);
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public void write(DataOutput out) throws IOException {
@@ -121,6 +606,7 @@ public class DbRecordWritable implements Writable, DBWritable {
         assert (values.length == types.length);
         out.writeInt(values.length);
         for(int i = 0; i < values.length; i++) {
+            out.writeInt(types[i]);
             HiveJdbcBridgeUtils.writeObject(values[i], types[i], out);
         }
     }
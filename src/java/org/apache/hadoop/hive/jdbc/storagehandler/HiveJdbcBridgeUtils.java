@@ -28,9 +28,20 @@ import java.util.List;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.hive.serde2.io.TimestampWritable;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 
 public class HiveJdbcBridgeUtils {
 
@@ -73,6 +84,40 @@ public class HiveJdbcBridgeUtils {
         throw new SerDeException("Unrecognized column type: " + hiveType);
     }
 
+    /**
+     * @return the SQL type of the elements of an array&lt;...&gt; type
+     */
+    public static int getArrayElementType(String hiveType) throws SerDeException {
+        String hiveElemType = hiveType.substring(hiveType.indexOf('<') + 1, hiveType.lastIndexOf('>')).trim();
+        return hiveTypeToSqlType(hiveElemType);
+    }
+
+    /**
+     * Maps a type reported by a JDBC driver, e.g., {@link java.sql.Array#getBaseType()}, to the
+     * one used for the corresponding Hive type.
+     */
+    public static int toHiveSqlType(int sqlType) {
+        switch(sqlType) {
+            case Types.CHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.LONGNVARCHAR:
+            case Types.CLOB:
+                return Types.VARCHAR;
+            case Types.REAL:
+                return Types.FLOAT;
+            case Types.BIT:
+                return Types.BOOLEAN;
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return Types.BINARY;
+            default:
+                return sqlType;
+        }
+    }
+
     public static ObjectInspector getObjectInspector(int sqlType, String hiveType)
             throws SerDeException {
         switch(sqlType) {
@@ -113,6 +158,9 @@ public class HiveJdbcBridgeUtils {
                 return oi.getPrimitiveJavaObject(field);
             }
             case LIST: {
+                if(field == null) {
+                    return null;
+                }
                 ListObjectInspector listOI = (ListObjectInspector) fieldOI;
                 List<?> elements = listOI.getList(field);
                 List<Object> list = new ArrayList<Object>(elements.size());
@@ -128,10 +176,79 @@ public class HiveJdbcBridgeUtils {
         }
     }
 
+    /**
+     * Copies a Hive list of primitives into a new array of Java objects, which is passed to
+     * {@link java.sql.Connection#createArrayOf} as is.
+     * 
+     * @return null if the field is null
+     */
+    public static Object[] deparseArray(Object field, ListObjectInspector listOI)
+            throws SerDeException {
+        final int size = listOI.getListLength(field);
+        if(size == -1) {
+            return null;
+        }
+        final ObjectInspector elemOI = listOI.getListElementObjectInspector();
+        if(elemOI.getCategory() != Category.PRIMITIVE) {
+            throw new SerDeException("Unexpected list element: " + elemOI);
+        }
+        final PrimitiveObjectInspector oi = (PrimitiveObjectInspector) elemOI;
+        final Object[] array = new Object[size];
+        for(int i = 0; i < size; i++) {
+            array[i] = oi.getPrimitiveJavaObject(listOI.getListElement(field, i));
+        }
+        return array;
+    }
+
+    /**
+     * @return an ObjectInspector of Text or BytesWritable for string and binary columns
+     * @see Constants#INPUT_LOB_THRESHOLD
+     */
+    public static ObjectInspector getLobObjectInspector(int sqlType, String hiveType)
+            throws SerDeException {
+        switch(sqlType) {
+            case Types.VARCHAR:
+                return PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+            case Types.BINARY:
+                return PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+            default:
+                return getObjectInspector(sqlType, hiveType);
+        }
+    }
+
+    /**
+     * @return an ObjectInspector of the writable read by DbRecordWritable for the type
+     * @see Constants#INPUT_WRITABLES
+     */
+    public static ObjectInspector getWritableObjectInspector(int sqlType, String hiveType)
+            throws SerDeException {
+        switch(sqlType) {
+            case Types.FLOAT:
+                return PrimitiveObjectInspectorFactory.writableFloatObjectInspector;
+            case Types.DOUBLE:
+                return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+            case Types.BOOLEAN:
+                return PrimitiveObjectInspectorFactory.writableBooleanObjectInspector;
+            case Types.TINYINT:
+                return PrimitiveObjectInspectorFactory.writableByteObjectInspector;
+            case Types.SMALLINT:
+                return PrimitiveObjectInspectorFactory.writableShortObjectInspector;
+            case Types.INTEGER:
+                return PrimitiveObjectInspectorFactory.writableIntObjectInspector;
+            case Types.BIGINT:
+                return PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+            case Types.TIMESTAMP:
+                return PrimitiveObjectInspectorFactory.writableTimestampObjectInspector;
+            default:
+                return getLobObjectInspector(sqlType, hiveType);
+        }
+    }
+
     public static Object readObject(DataInput in, int sqlType) throws IOException {
         switch(sqlType) {
             case Types.VARCHAR:
-                return in.readUTF();
+                // not readUTF, which is limited to 64KB
+                return Text.readString(in);
             case Types.FLOAT:
                 return Float.valueOf(in.readFloat());
             case Types.DOUBLE:
@@ -164,8 +281,7 @@ public class HiveJdbcBridgeUtils {
                 int elemType = in.readInt();
                 Object[] a = new Object[size];
                 for(int i = 0; i < size; i++) {
-                    Object o = readObject(in, elemType);
-                    a[i] = o;
+                    a[i] = readObject(in, elemType);
                 }
                 return Arrays.asList(a);
             }
@@ -177,58 +293,100 @@ public class HiveJdbcBridgeUtils {
     public static void writeObject(Object obj, int sqlType, DataOutput out) throws IOException {
         switch(sqlType) {
             case Types.VARCHAR: {
-                String s = obj.toString();
-                out.writeUTF(s);
+                if(obj instanceof Text) {
+                    // same format as Text#writeString
+                    ((Text) obj).write(out);
+                } else {
+                    Text.writeString(out, obj.toString());
+                }
                 return;
             }
             case Types.FLOAT: {
+                if(obj instanceof FloatWritable) {
+                    out.writeFloat(((FloatWritable) obj).get());
+                    return;
+                }
                 Float f = (Float) obj;
                 out.writeFloat(f.floatValue());
                 return;
             }
             case Types.DOUBLE: {
+                if(obj instanceof DoubleWritable) {
+                    out.writeDouble(((DoubleWritable) obj).get());
+                    return;
+                }
                 Double d = (Double) obj;
                 out.writeDouble(d.doubleValue());
                 return;
             }
             case Types.BOOLEAN: {
+                if(obj instanceof BooleanWritable) {
+                    out.writeBoolean(((BooleanWritable) obj).get());
+                    return;
+                }
                 Boolean b = (Boolean) obj;
                 out.writeBoolean(b.booleanValue());
                 return;
             }
             case Types.TINYINT: {
+                if(obj instanceof ByteWritable) {
+                    out.writeByte(((ByteWritable) obj).get());
+                    return;
+                }
                 Byte b = (Byte) obj;
                 out.writeByte(b.intValue());
                 return;
             }
             case Types.SMALLINT: {
+                if(obj instanceof ShortWritable) {
+                    out.writeShort(((ShortWritable) obj).get());
+                    return;
+                }
                 Short s = (Short) obj;
                 out.writeShort(s.shortValue());
                 return;
             }
             case Types.INTEGER: {
+                if(obj instanceof IntWritable) {
+                    out.writeInt(((IntWritable) obj).get());
+                    return;
+                }
                 Integer i = (Integer) obj;
                 out.writeInt(i.intValue());
                 return;
             }
             case Types.BIGINT: {
+                if(obj instanceof LongWritable) {
+                    out.writeLong(((LongWritable) obj).get());
+                    return;
+                }
                 Long l = (Long) obj;
                 out.writeLong(l.longValue());
                 return;
             }
             case Types.TIMESTAMP: {
+                if(obj instanceof TimestampWritable) {
+                    out.writeLong(((TimestampWritable) obj).getTimestamp().getTime());
+                    return;
+                }
                 Timestamp time = (Timestamp) obj;
                 out.writeLong(time.getTime());
                 return;
             }
             case Types.BINARY: {
+                if(obj instanceof BytesWritable) {
+                    BytesWritable bw = (BytesWritable) obj;
+                    out.writeInt(bw.getLength());
+                    out.write(bw.getBytes(), 0, bw.getLength());
+                    return;
+                }
                 byte[] b = (byte[]) obj;
                 out.writeInt(b.length);
                 out.write(b);
                 return;
             }
             case Types.ARRAY: {
-                List<?> list = (List<?>) obj;
+                List<?> list = (obj instanceof Object[]) ? Arrays.asList((Object[]) obj) : (List<?>) obj;
                 int size = list.size();
                 out.writeInt(size);
                 if(size > 0) {
@@ -248,6 +406,93 @@ public class HiveJdbcBridgeUtils {
         }
     }
 
+    /**
+     * Wraps the value of {@link java.sql.Array#getArray()}, which is an array of boxed objects or,
+     * for some drivers, of primitives.
+     */
+    public static List<Object> toList(Object array) {
+        if(array instanceof Object[]) {
+            return Arrays.asList((Object[]) array);
+        }
+        final int length = java.lang.reflect.Array.getLength(array);
+        final Object[] a = new Object[length];
+        for(int i = 0; i < length; i++) {
+            a[i] = java.lang.reflect.Array.get(array, i);
+        }
+        return Arrays.asList(a);
+    }
+
+    /**
+     * Replaces the elements that are not of the Java type of the Hive element type, e.g., the
+     * Long elements of an int8[] column declared as array&lt;int&gt;. Elements of the right type
+     * are kept as they are.
+     */
+    public static void convertElements(List<Object> list, int elemType) throws SerDeException {
+        final int size = list.size();
+        for(int i = 0; i < size; i++) {
+            Object e = list.get(i);
+            if(e != null && !isJavaType(e, elemType)) {
+                list.set(i, toJavaType(e, elemType));
+            }
+        }
+    }
+
+    private static boolean isJavaType(Object obj, int sqlType) {
+        switch(sqlType) {
+            case Types.VARCHAR:
+                return obj instanceof String;
+            case Types.FLOAT:
+                return obj instanceof Float;
+            case Types.DOUBLE:
+                return obj instanceof Double;
+            case Types.BOOLEAN:
+                return obj instanceof Boolean;
+            case Types.TINYINT:
+                return obj instanceof Byte;
+            case Types.SMALLINT:
+                return obj instanceof Short;
+            case Types.INTEGER:
+                return obj instanceof Integer;
+            case Types.BIGINT:
+                return obj instanceof Long;
+            case Types.TIMESTAMP:
+                return obj instanceof Timestamp;
+            case Types.BINARY:
+                return obj instanceof byte[];
+            default:
+                return true;
+        }
+    }
+
+    private static Object toJavaType(Object obj, int sqlType) throws SerDeException {
+        if(sqlType == Types.VARCHAR) {
+            return obj.toString();
+        }
+        if(obj instanceof Number) {
+            Number n = (Number) obj;
+            switch(sqlType) {
+                case Types.FLOAT:
+                    return Float.valueOf(n.floatValue());
+                case Types.DOUBLE:
+                    return Double.valueOf(n.doubleValue());
+                case Types.TINYINT:
+                    return Byte.valueOf(n.byteValue());
+                case Types.SMALLINT:
+                    return Short.valueOf(n.shortValue());
+                case Types.INTEGER:
+                    return Integer.valueOf(n.intValue());
+                case Types.BIGINT:
+                    return Long.valueOf(n.longValue());
+                default:
+                    break;
+            }
+        } else if(obj instanceof java.util.Date && sqlType == Types.TIMESTAMP) {
+            return new Timestamp(((java.util.Date) obj).getTime());
+        }
+        throw new SerDeException("Cannot convert an array element of " + obj.getClass().getName()
+                + " to type: " + sqlType);
+    }
+
     public static int toSqlType(Class<?> clazz) throws IOException {
         if(clazz == String.class) {
             return Types.VARCHAR;
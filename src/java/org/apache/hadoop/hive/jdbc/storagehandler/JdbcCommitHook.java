@@ -0,0 +1,364 @@
+/*
+ * Copyright 2013-2015 Makoto YUI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.jdbc.storagehandler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.jdbc.storagehandler.JdbcDialect.DeferredConstraint;
+import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.ql.hooks.Entity;
+import org.apache.hadoop.hive.ql.hooks.ExecuteWithHookContext;
+import org.apache.hadoop.hive.ql.hooks.HookContext;
+import org.apache.hadoop.hive.ql.hooks.WriteEntity;
+import org.apache.hadoop.hive.ql.metadata.HiveStorageHandler;
+import org.apache.hadoop.hive.ql.metadata.Table;
+import org.apache.hadoop.mapreduce.lib.db.DBConfiguration;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Prepares and finishes the writes to JDBC tables around the whole query.
+ *
+ * -- required for "mapred.jdbc.output.staging"="true"
+ * set hive.exec.post.hooks=org.apache.hadoop.hive.jdbc.storagehandler.JdbcCommitHook;
+ * set hive.exec.failure.hooks=org.apache.hadoop.hive.jdbc.storagehandler.JdbcCommitHook;
+ * 
+ * -- additionally required for "mapred.jdbc.output.bulkload"="true", which refuses to run
+ * -- without the two hooks above
+ * set hive.exec.pre.hooks=org.apache.hadoop.hive.jdbc.storagehandler.JdbcCommitHook;
+ */
+public class JdbcCommitHook implements ExecuteWithHookContext {
+    private static final Log LOG = LogFactory.getLog(JdbcCommitHook.class);
+
+    // indexes and constraints dropped by the pre-execution hook, keyed by query id and table
+    private static final Map<String, List<DeferredConstraint>> droppedConstraints = new ConcurrentHashMap<String, List<DeferredConstraint>>();
+
+    public JdbcCommitHook() {}
+
+    @Override
+    public void run(HookContext hookContext) throws Exception {
+        final Configuration hiveConf = hookContext.getConf();
+        for(WriteEntity output : hookContext.getOutputs()) {
+            if(output.getType() != Entity.Type.TABLE) {
+                continue;
+            }
+            Table tbl = output.getTable();
+            HiveStorageHandler handler = tbl.getStorageHandler();
+            if(!(handler instanceof JdbcStorageHandler)) {
+                continue;
+            }
+            Configuration conf = getTableConf(hiveConf, tbl, handler);
+            boolean staging = conf.getBoolean(Constants.OUTPUT_STAGING, false);
+            boolean bulkload = conf.getBoolean(Constants.OUTPUT_BULKLOAD, false);
+            switch(hookContext.getHookType()) {
+                case PRE_EXEC_HOOK:
+                    if(bulkload) {
+                        dropConstraints(conf);
+                    }
+                    break;
+                case POST_EXEC_HOOK:
+                    try {
+                        if(staging) {
+                            publishStagingTables(conf);
+                        }
+                    } finally {
+                        if(bulkload) {
+                            restoreConstraints(conf);
+                        }
+                    }
+                    break;
+                case ON_FAILURE_HOOK:
+                    try {
+                        if(staging) {
+                            dropStagingTables(conf);
+                        }
+                    } finally {
+                        if(bulkload) {
+                            restoreConstraints(conf);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static Configuration getTableConf(Configuration hiveConf, Table tbl, HiveStorageHandler handler) {
+        Map<String, String> jobProperties = new HashMap<String, String>();
+        handler.configureOutputJobProperties(Utilities.getTableDesc(tbl), jobProperties);
+        Configuration conf = new Configuration(hiveConf);
+        for(Map.Entry<String, String> e : jobProperties.entrySet()) {
+            conf.set(e.getKey(), e.getValue());
+        }
+        return conf;
+    }
+
+    private static void publishStagingTables(Configuration conf) throws Exception {
+        final DBConfiguration dbConf = new DBConfiguration(conf);
+        final String tableName = dbConf.getOutputTableName();
+        final String prefix = JdbcOutputFormat.getStagingTablePrefix(tableName, conf.get(Constants.HIVE_QUERY_ID));
+
+        Connection conn = dbConf.getConnection();
+        try {
+            conn.setAutoCommit(false);
+            JdbcDialect dialect = JdbcDialect.getDialect(conn, conf);
+            List<String> stagingTables = dialect.getTables(conn, prefix);
+            if(stagingTables.isEmpty()) {
+                return;
+            }
+            // tables of earlier attempts that failed without dropping them
+            List<String> failedAttempts = removeFailedAttempts(stagingTables);
+            if(!failedAttempts.isEmpty()) {
+                LOG.warn("Dropping staging tables of failed task attempts: " + failedAttempts);
+                dropTables(conn, dialect, failedAttempts);
+            }
+            final String[] upsertKeys = JdbcOutputFormat.getUpsertKeys(conf);
+            final List<String> queries;
+            if(upsertKeys == null) {
+                queries = Collections.singletonList(dialect.getMergeStagingTablesQuery(tableName, dbConf.getOutputFieldNames(), stagingTables));
+            } else {
+                queries = dialect.getUpsertStagingTablesQueries(tableName, dbConf.getOutputFieldNames(), upsertKeys, stagingTables);
+            }
+            if(LOG.isInfoEnabled()) {
+                LOG.info("Publishing " + stagingTables.size() + " staging tables to " + tableName);
+            }
+            try {
+                for(String query : queries) {
+                    JdbcDialect.executeUpdate(conn, query);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+            dropTables(conn, dialect, stagingTables);
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * Keeps the table of the last attempt of each task in the list. Speculative execution is
+     * disabled for staging writes, so an attempt only starts after the previous one failed.
+     *
+     * @return the tables of the other attempts
+     */
+    static List<String> removeFailedAttempts(List<String> stagingTables) {
+        final Map<String, String> lastAttempts = new HashMap<String, String>();
+        final Map<String, Integer> lastAttemptIds = new HashMap<String, Integer>();
+        final List<String> failed = new ArrayList<String>();
+        for(String table : stagingTables) {
+            Matcher m = STAGING_TABLE_SUFFIX.matcher(table);
+            if(!m.find()) {
+                continue;
+            }
+            String task = m.group(1);
+            int attempt = Integer.parseInt(m.group(2));
+            Integer last = lastAttemptIds.get(task);
+            if(last == null || last.intValue() < attempt) {
+                if(last != null) {
+                    failed.add(lastAttempts.get(task));
+                }
+                lastAttempts.put(task, table);
+                lastAttemptIds.put(task, attempt);
+            } else {
+                failed.add(table);
+            }
+        }
+        stagingTables.removeAll(failed);
+        return failed;
+    }
+
+    // <task partition>_<attempt>
+    private static final Pattern STAGING_TABLE_SUFFIX = Pattern.compile("_(\\d+)_(\\d+)$");
+
+    private static void dropStagingTables(Configuration conf) throws Exception {
+        final DBConfiguration dbConf = new DBConfiguration(conf);
+        final String prefix = JdbcOutputFormat.getStagingTablePrefix(dbConf.getOutputTableName(), conf.get(Constants.HIVE_QUERY_ID));
+
+        Connection conn = dbConf.getConnection();
+        try {
+            conn.setAutoCommit(false);
+            JdbcDialect dialect = JdbcDialect.getDialect(conn, conf);
+            dropTables(conn, dialect, dialect.getTables(conn, prefix));
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static void dropConstraints(Configuration conf) throws Exception {
+        // nothing else would restore what is dropped here
+        if(!isHookConfigured(conf, Constants.HIVE_POST_EXEC_HOOKS)
+                || !isHookConfigured(conf, Constants.HIVE_FAILURE_HOOKS)) {
+            throw new IOException(Constants.OUTPUT_BULKLOAD + " requires "
+                    + JdbcCommitHook.class.getName() + " in " + Constants.HIVE_POST_EXEC_HOOKS
+                    + " and " + Constants.HIVE_FAILURE_HOOKS);
+        }
+        final DBConfiguration dbConf = new DBConfiguration(conf);
+        final String tableName = dbConf.getOutputTableName();
+        final String key = conf.get(Constants.HIVE_QUERY_ID) + '/' + tableName;
+
+        Connection conn = dbConf.getConnection();
+        try {
+            conn.setAutoCommit(false);
+            JdbcDialect dialect = JdbcDialect.getDialect(conn, conf);
+            List<DeferredConstraint> constraints = dialect.getDeferrableConstraints(conn, tableName);
+            if(constraints.isEmpty()) {
+                return;
+            }
+            // saved so that they can be restored by hand if this client dies
+            File restoreFile = saveRestoreQueries(tableName, conf.get(Constants.HIVE_QUERY_ID), constraints);
+            LOG.warn("Dropping indexes and constraints of " + tableName + " for bulk load;"
+                    + " restore DDL saved to " + restoreFile + ": " + constraints);
+            final List<DeferredConstraint> dropped = new ArrayList<DeferredConstraint>(constraints.size());
+            try {
+                for(DeferredConstraint c : constraints) {
+                    JdbcDialect.executeUpdate(conn, c.getDropQuery());
+                    // one at a time, as DDL is committed implicitly by some databases
+                    conn.commit();
+                    dropped.add(c);
+                }
+            } catch (SQLException e) {
+                conn.rollback();
+                // Hive does not run the failure hooks when a pre-execution hook fails
+                LOG.error("Failed to drop the indexes and constraints of " + tableName
+                        + "; restoring the " + dropped.size() + " dropped");
+                createConstraints(conn, tableName, conf.get(Constants.HIVE_QUERY_ID), dropped);
+                throw e;
+            }
+            droppedConstraints.put(key, constraints);
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static boolean isHookConfigured(Configuration conf, String hooksKey) {
+        for(String hook : conf.getStrings(hooksKey, new String[0])) {
+            if(JdbcCommitHook.class.getName().equals(hook.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return a file of the statements restoring the constraints, in the order to run them
+     */
+    private static File getRestoreFile(String tableName, String queryId) {
+        String name = "jdbc_bulkload_" + tableName + '_' + Integer.toHexString(queryId.hashCode()) + ".sql";
+        return new File(System.getProperty("java.io.tmpdir"), name);
+    }
+
+    private static File saveRestoreQueries(String tableName, String queryId, List<DeferredConstraint> constraints)
+            throws IOException {
+        final File file = getRestoreFile(tableName, queryId);
+        final Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            for(int i = constraints.size() - 1; i >= 0; i--) {
+                out.write(constraints.get(i).getCreateQuery());
+                out.write(";\n");
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static void restoreConstraints(Configuration conf) throws Exception {
+        final DBConfiguration dbConf = new DBConfiguration(conf);
+        final String tableName = dbConf.getOutputTableName();
+        final String key = conf.get(Constants.HIVE_QUERY_ID) + '/' + tableName;
+        final List<DeferredConstraint> constraints = droppedConstraints.remove(key);
+
+        Connection conn = dbConf.getConnection();
+        try {
+            conn.setAutoCommit(false);
+            JdbcDialect dialect = JdbcDialect.getDialect(conn, conf);
+            if(constraints != null
+                    && !createConstraints(conn, tableName, conf.get(Constants.HIVE_QUERY_ID), constraints)) {
+                throw new IOException("Failed to restore the indexes and constraints of " + tableName
+                        + "; the DDL is kept in " + getRestoreFile(tableName, conf.get(Constants.HIVE_QUERY_ID)));
+            }
+            String analyze = dialect.getAnalyzeQuery(tableName);
+            if(analyze != null) {
+                JdbcDialect.executeUpdate(conn, analyze);
+                conn.commit();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * Creates the constraints in the reverse order of dropping them, and deletes the restore file
+     * once all are created.
+     * 
+     * @return false if some of them failed, which are logged
+     */
+    private static boolean createConstraints(Connection conn, String tableName, String queryId, List<DeferredConstraint> constraints)
+            throws SQLException {
+        boolean restored = true;
+        // indexes first, as foreign keys are listed before them
+        for(int i = constraints.size() - 1; i >= 0; i--) {
+            DeferredConstraint c = constraints.get(i);
+            try {
+                JdbcDialect.executeUpdate(conn, c.getCreateQuery());
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                restored = false;
+                LOG.error("Failed to restore on " + tableName + ": " + c.getCreateQuery() + '\n'
+                        + StringUtils.stringifyException(e));
+            }
+        }
+        File restoreFile = getRestoreFile(tableName, queryId);
+        if(restored) {
+            restoreFile.delete();
+        } else {
+            LOG.error("The DDL to restore " + tableName + " is kept in " + restoreFile);
+        }
+        return restored;
+    }
+
+    private static void dropTables(Connection conn, JdbcDialect dialect, List<String> tables) {
+        for(String table : tables) {
+            try {
+                dialect.dropTableIfExists(conn, table);
+                conn.commit();
+            } catch (SQLException e) {
+                LOG.warn("Failed to drop " + table + ": " + StringUtils.stringifyException(e));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,475 @@
+/*
+ * Copyright 2013-2015 Makoto YUI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.jdbc.storagehandler;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Database specific SQL. The default implementation sticks to ANSI SQL and JDBC metadata.
+ *
+ * @see Constants#DIALECT_CLASS
+ */
+public class JdbcDialect {
+
+    public JdbcDialect() {}
+
+    public static JdbcDialect getDialect(Connection conn, Configuration conf) throws SQLException {
+        Class<?> clazz = (conf == null) ? null : conf.getClass(Constants.DIALECT_CLASS, null);
+        if(clazz != null) {
+            return (JdbcDialect) ReflectionUtils.newInstance(clazz, conf);
+        }
+        String productName = conn.getMetaData().getDatabaseProductName().toUpperCase();
+        if(productName.startsWith("POSTGRESQL")) {
+            return new PostgreSQLDialect();
+        } else if(productName.startsWith("MYSQL")) {
+            return new MySQLDialect();
+        }
+        return new JdbcDialect();
+    }
+
+    public String getCreateStagingTableQuery(String stagingTable, String table) {
+        return "CREATE TABLE " + stagingTable + " AS SELECT * FROM " + table + " WHERE 1 = 0";
+    }
+
+    public String getMergeStagingTablesQuery(String table, String[] fieldNames, List<String> stagingTables) {
+        final String fields = (fieldNames == null) ? "*" : join(fieldNames);
+        final StringBuilder query = new StringBuilder(128);
+        query.append("INSERT INTO ").append(table);
+        if(fieldNames != null) {
+            query.append(" (").append(fields).append(')');
+        }
+        query.append(' ');
+        appendUnionAll(query, fields, stagingTables);
+        return query.toString();
+    }
+
+    /**
+     * @return a MERGE statement inserting a row or updating the row of the same keys, whose
+     *         parameters are the fields in order
+     */
+    public String getUpsertQuery(String table, String[] fieldNames, String[] keys) {
+        final StringBuilder query = new StringBuilder(256);
+        query.append("MERGE INTO ").append(table).append(" USING (VALUES (");
+        for(int i = 0; i < fieldNames.length; i++) {
+            if(i != 0) {
+                query.append(',');
+            }
+            query.append('?');
+        }
+        query.append(")) AS s (").append(join(fieldNames)).append(')');
+        appendMergeClauses(query, table, fieldNames, keys);
+        return query.toString();
+    }
+
+    /**
+     * @return statements run in a transaction to upsert the rows of the staging tables, here a
+     *         single MERGE. When a key is staged more than once, the row of the last staging
+     *         table wins.
+     */
+    public List<String> getUpsertStagingTablesQueries(String table, String[] fieldNames, String[] keys, List<String> stagingTables) {
+        final String fields = join(fieldNames);
+        final StringBuilder query = new StringBuilder(256);
+        query.append("MERGE INTO ").append(table).append(" USING (SELECT ").append(fields);
+        query.append(" FROM (SELECT ").append(fields).append(", ROW_NUMBER() OVER (PARTITION BY ").append(join(keys));
+        query.append(" ORDER BY stg_ord DESC) stg_rn FROM (");
+        appendOrderedUnionAll(query, fields, null, stagingTables);
+        // no AS before a table alias, which Oracle rejects
+        query.append(") u) d WHERE stg_rn = 1) s");
+        appendMergeClauses(query, table, fieldNames, keys);
+        return Collections.singletonList(query.toString());
+    }
+
+    private static void appendMergeClauses(StringBuilder query, String table, String[] fieldNames, String[] keys) {
+        query.append(" ON (");
+        for(int i = 0; i < keys.length; i++) {
+            if(i != 0) {
+                query.append(" AND ");
+            }
+            query.append(table).append('.').append(keys[i]).append(" = s.").append(keys[i]);
+        }
+        query.append(')');
+        boolean first = true;
+        for(String field : fieldNames) {
+            if(contains(keys, field)) {
+                continue;
+            }
+            query.append(first ? " WHEN MATCHED THEN UPDATE SET " : ", ");
+            query.append(field).append(" = s.").append(field);
+            first = false;
+        }
+        query.append(" WHEN NOT MATCHED THEN INSERT (").append(join(fieldNames)).append(") VALUES (");
+        for(int i = 0; i < fieldNames.length; i++) {
+            if(i != 0) {
+                query.append(", ");
+            }
+            query.append("s.").append(fieldNames[i]);
+        }
+        query.append(')');
+    }
+
+    protected static void appendUnionAll(StringBuilder query, String fields, List<String> stagingTables) {
+        for(int i = 0; i < stagingTables.size(); i++) {
+            if(i != 0) {
+                query.append(" UNION ALL ");
+            }
+            query.append("SELECT ").append(fields).append(" FROM ").append(stagingTables.get(i));
+        }
+    }
+
+    /**
+     * Appends the rows of the staging tables along with the index of their table as stg_ord, and
+     * the given expression as stg_row unless null.
+     */
+    protected static void appendOrderedUnionAll(StringBuilder query, String fields, String rowExpr, List<String> stagingTables) {
+        for(int i = 0; i < stagingTables.size(); i++) {
+            if(i != 0) {
+                query.append(" UNION ALL ");
+            }
+            query.append("SELECT ").append(fields).append(", ").append(i).append(" AS stg_ord");
+            if(rowExpr != null) {
+                query.append(", ").append(rowExpr).append(" AS stg_row");
+            }
+            query.append(" FROM ").append(stagingTables.get(i));
+        }
+    }
+
+    protected static boolean contains(String[] names, String name) {
+        for(String n : names) {
+            if(n.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return non-unique indexes and foreign keys of the table, which are dropped during a bulk
+     *         load. Foreign keys come first so that dropping in order and creating in reverse
+     *         order is safe.
+     */
+    public List<DeferredConstraint> getDeferrableConstraints(Connection conn, String table)
+            throws SQLException {
+        final DatabaseMetaData meta = conn.getMetaData();
+        String schema = null;
+        String name = table;
+        int dot = table.lastIndexOf('.');
+        if(dot != -1) {
+            schema = toStoredCase(meta, table.substring(0, dot));
+            name = table.substring(dot + 1);
+        }
+        name = toStoredCase(meta, name);
+
+        final List<DeferredConstraint> list = new ArrayList<DeferredConstraint>();
+        // foreign keys
+        ResultSet rs = meta.getImportedKeys(null, schema, name);
+        try {
+            String fkName = null, pkTable = null, rules = null;
+            StringBuilder fkCols = null, pkCols = null;
+            while(rs.next()) {
+                if(rs.getShort("KEY_SEQ") == 1) {
+                    if(fkName != null) {
+                        list.add(foreignKey(table, fkName, fkCols, pkTable, pkCols, rules));
+                    }
+                    fkName = rs.getString("FK_NAME");
+                    String pkSchema = rs.getString("PKTABLE_SCHEM");
+                    pkTable = (pkSchema == null) ? rs.getString("PKTABLE_NAME")
+                            : (pkSchema + '.' + rs.getString("PKTABLE_NAME"));
+                    fkCols = new StringBuilder(rs.getString("FKCOLUMN_NAME"));
+                    pkCols = new StringBuilder(rs.getString("PKCOLUMN_NAME"));
+                    rules = getForeignKeyRules(rs.getShort("UPDATE_RULE"), rs.getShort("DELETE_RULE"), rs.getShort("DEFERRABILITY"));
+                } else {
+                    fkCols.append(',').append(rs.getString("FKCOLUMN_NAME"));
+                    pkCols.append(',').append(rs.getString("PKCOLUMN_NAME"));
+                }
+            }
+            if(fkName != null) {
+                list.add(foreignKey(table, fkName, fkCols, pkTable, pkCols, rules));
+            }
+        } finally {
+            rs.close();
+        }
+        // non-unique indexes on plain columns; others cannot be rebuilt from the metadata
+        rs = meta.getIndexInfo(null, schema, name, false, false);
+        try {
+            String indexName = null;
+            StringBuilder cols = null;
+            boolean rebuildable = false;
+            while(rs.next()) {
+                if(rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic
+                        || !rs.getBoolean("NON_UNIQUE")) {
+                    continue;
+                }
+                if(rs.getShort("ORDINAL_POSITION") == 1) {
+                    if(indexName != null && rebuildable) {
+                        list.add(index(table, indexName, cols));
+                    }
+                    indexName = rs.getString("INDEX_NAME");
+                    cols = new StringBuilder();
+                    rebuildable = (rs.getString("FILTER_CONDITION") == null);
+                } else {
+                    cols.append(',');
+                }
+                String column = rs.getString("COLUMN_NAME");
+                if(column == null) {
+                    rebuildable = false;
+                    continue;
+                }
+                cols.append(column);
+                if("D".equals(rs.getString("ASC_OR_DESC"))) {
+                    cols.append(" DESC");
+                }
+            }
+            if(indexName != null && rebuildable) {
+                list.add(index(table, indexName, cols));
+            }
+        } finally {
+            rs.close();
+        }
+        return list;
+    }
+
+    /**
+     * @return the clauses of a foreign key that differ from the defaults, which are NO ACTION and
+     *         NOT DEFERRABLE
+     */
+    private static String getForeignKeyRules(short updateRule, short deleteRule, short deferrability) {
+        final StringBuilder buf = new StringBuilder();
+        String update = toReferentialAction(updateRule);
+        if(update != null) {
+            buf.append(" ON UPDATE ").append(update);
+        }
+        String delete = toReferentialAction(deleteRule);
+        if(delete != null) {
+            buf.append(" ON DELETE ").append(delete);
+        }
+        if(deferrability == DatabaseMetaData.importedKeyInitiallyDeferred) {
+            buf.append(" DEFERRABLE INITIALLY DEFERRED");
+        } else if(deferrability == DatabaseMetaData.importedKeyInitiallyImmediate) {
+            buf.append(" DEFERRABLE INITIALLY IMMEDIATE");
+        }
+        return buf.toString();
+    }
+
+    /**
+     * @return null for RESTRICT and NO ACTION, which some drivers do not tell apart
+     */
+    private static String toReferentialAction(short rule) {
+        switch(rule) {
+            case DatabaseMetaData.importedKeyCascade:
+                return "CASCADE";
+            case DatabaseMetaData.importedKeySetNull:
+                return "SET NULL";
+            case DatabaseMetaData.importedKeySetDefault:
+                return "SET DEFAULT";
+            default:
+                return null;
+        }
+    }
+
+    private DeferredConstraint foreignKey(String table, String fkName, StringBuilder fkCols, String pkTable, StringBuilder pkCols, String rules) {
+        return new DeferredConstraint(getDropForeignKeyQuery(table, fkName), "ALTER TABLE "
+                + table + " ADD CONSTRAINT " + fkName + " FOREIGN KEY (" + fkCols + ") REFERENCES "
+                + pkTable + " (" + pkCols + ')' + rules);
+    }
+
+    private DeferredConstraint index(String table, String indexName, StringBuilder cols) {
+        return new DeferredConstraint(getDropIndexQuery(table, indexName), "CREATE INDEX " + indexName
+                + " ON " + table + " (" + cols + ')');
+    }
+
+    protected String getDropForeignKeyQuery(String table, String fkName) {
+        return "ALTER TABLE " + table + " DROP CONSTRAINT " + fkName;
+    }
+
+    protected String getDropIndexQuery(String table, String indexName) {
+        return "DROP INDEX " + indexName;
+    }
+
+    /**
+     * @return a statement to update the optimizer statistics of the table, or null
+     */
+    public String getAnalyzeQuery(String table) {
+        return null;
+    }
+
+    /**
+     * @return a TABLESAMPLE clause following the table, or null when not supported by the
+     *         database. The same seed must select the same rows, as each split runs its own
+     *         query.
+     */
+    public String getTableSampleClause(Connection conn, String method, double percent, int seed)
+            throws SQLException {
+        return null;
+    }
+
+    /**
+     * @return a predicate selecting about the given percentage of rows by the value of a numeric
+     *         column
+     */
+    public String getSamplePredicate(String column, double percent, int seed) {
+        // in hundredths of a percent
+        long n = Math.round(percent * 100d);
+        return "ABS(MOD(" + column + " + " + seed + ", 10000)) < " + n;
+    }
+
+    /**
+     * @return a query returning the plan of the given query as rows of text, or null
+     */
+    public String getExplainQuery(String query) {
+        return null;
+    }
+
+    /**
+     * @return the partitions of the table, each readable by its own name, or an empty list if
+     *         the table is not partitioned or partitions are not supported
+     */
+    public List<RemotePartition> getPartitions(Connection conn, String table) throws SQLException {
+        return new ArrayList<RemotePartition>(0);
+    }
+
+    /**
+     * @return the type name passed to {@link Connection#createArrayOf(String, Object[])}
+     */
+    public String getArrayElementTypeName(int sqlType) throws SQLException {
+        switch(sqlType) {
+            case Types.VARCHAR:
+                return "VARCHAR";
+            case Types.FLOAT:
+                return "REAL";
+            case Types.DOUBLE:
+                return "DOUBLE";
+            case Types.BOOLEAN:
+                return "BOOLEAN";
+            case Types.TINYINT:
+                return "TINYINT";
+            case Types.SMALLINT:
+                return "SMALLINT";
+            case Types.INTEGER:
+                return "INTEGER";
+            case Types.BIGINT:
+                return "BIGINT";
+            case Types.TIMESTAMP:
+                return "TIMESTAMP";
+            case Types.BINARY:
+                return "VARBINARY";
+            default:
+                throw new SQLException("Unsupported array element type: " + sqlType);
+        }
+    }
+
+    public void dropTableIfExists(Connection conn, String table) throws SQLException {
+        for(String t : getTables(conn, table)) {
+            if(t.equalsIgnoreCase(table)) {
+                executeUpdate(conn, "DROP TABLE " + table);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return tables whose names start with the given (optionally schema qualified) prefix
+     */
+    public List<String> getTables(Connection conn, String prefix) throws SQLException {
+        final DatabaseMetaData meta = conn.getMetaData();
+        String schema = null;
+        int dot = prefix.lastIndexOf('.');
+        if(dot != -1) {
+            schema = toStoredCase(meta, prefix.substring(0, dot));
+            prefix = prefix.substring(dot + 1);
+        }
+        prefix = toStoredCase(meta, prefix);
+
+        final List<String> tables = new ArrayList<String>();
+        ResultSet rs = meta.getTables(null, schema, prefix + '%', new String[] { "TABLE" });
+        try {
+            while(rs.next()) {
+                String name = rs.getString("TABLE_NAME");
+                // '_' is a wildcard in LIKE patterns
+                if(name.startsWith(prefix)) {
+                    tables.add(schema == null ? name : (schema + '.' + name));
+                }
+            }
+        } finally {
+            rs.close();
+        }
+        return tables;
+    }
+
+    protected static String toStoredCase(DatabaseMetaData meta, String identifier)
+            throws SQLException {
+        if(meta.storesLowerCaseIdentifiers()) {
+            return identifier.toLowerCase();
+        } else if(meta.storesUpperCaseIdentifiers()) {
+            return identifier.toUpperCase();
+        }
+        return identifier;
+    }
+
+    public static int executeUpdate(Connection conn, String sql) throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            return stmt.executeUpdate(sql);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    public static final class DeferredConstraint {
+        private final String dropQuery;
+        private final String createQuery;
+
+        public DeferredConstraint(String dropQuery, String createQuery) {
+            this.dropQuery = dropQuery;
+            this.createQuery = createQuery;
+        }
+
+        public String getDropQuery() {
+            return dropQuery;
+        }
+
+        public String getCreateQuery() {
+            return createQuery;
+        }
+
+        @Override
+        public String toString() {
+            return createQuery;
+        }
+    }
+
+    protected static String join(String[] names) {
+        final StringBuilder buf = new StringBuilder(64);
+        for(int i = 0; i < names.length; i++) {
+            if(i != 0) {
+                buf.append(',');
+            }
+            buf.append(names[i]);
+        }
+        return buf.toString();
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2013-2015 Makoto YUI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.jdbc.storagehandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.ql.index.IndexPredicateAnalyzer;
+import org.apache.hadoop.hive.ql.index.IndexSearchCondition;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.TableScanDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqual;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqualOrGreaterThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqualOrLessThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPGreaterThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPLessThan;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.mapreduce.lib.db.DBConfiguration;
+
+/**
+ * Translates the comparisons between a column and a constant AND-ed in a Hive filter into SQL
+ * conditions.
+ *
+ * @see JdbcStorageHandler#decomposePredicate
+ */
+public final class JdbcFilterPushdown {
+
+    private JdbcFilterPushdown() {}
+
+    public static IndexPredicateAnalyzer newAnalyzer(String[] columnNames) {
+        IndexPredicateAnalyzer analyzer = new IndexPredicateAnalyzer();
+        analyzer.addComparisonOp(GenericUDFOPEqual.class.getName());
+        analyzer.addComparisonOp(GenericUDFOPLessThan.class.getName());
+        analyzer.addComparisonOp(GenericUDFOPEqualOrLessThan.class.getName());
+        analyzer.addComparisonOp(GenericUDFOPGreaterThan.class.getName());
+        analyzer.addComparisonOp(GenericUDFOPEqualOrGreaterThan.class.getName());
+        for(String column : columnNames) {
+            analyzer.allowColumnName(column.trim());
+        }
+        return analyzer;
+    }
+
+    /**
+     * @return the comparisons of the filter pushed to the table scan between a column and a
+     *         constant of the same type
+     */
+    public static List<Comparison> getComparisons(Configuration conf) {
+        final List<Comparison> comparisons = new ArrayList<Comparison>();
+        String columns = conf.get(DBConfiguration.INPUT_FIELD_NAMES_PROPERTY);
+        String filter = conf.get(TableScanDesc.FILTER_EXPR_CONF_STR);
+        if(columns == null || filter == null) {
+            return comparisons;
+        }
+        ExprNodeDesc expr = Utilities.deserializeExpression(filter, conf);
+        List<IndexSearchCondition> conditions = new ArrayList<IndexSearchCondition>();
+        newAnalyzer(columns.split(",")).analyzePredicate(expr, conditions);
+        for(IndexSearchCondition cond : conditions) {
+            String op = toSqlOperator(cond.getComparisonOp());
+            Object value = cond.getConstantDesc().getValue();
+            if(op == null || toSqlLiteral(value) == null
+                    || !isComparable(cond.getColumnDesc().getTypeInfo(), value)) {
+                continue;
+            }
+            // the analyzer also accepts "constant op column"
+            List<ExprNodeDesc> children = cond.getComparisonExpr().getChildren();
+            if(children != null && !children.isEmpty()
+                    && children.get(0) instanceof ExprNodeConstantDesc) {
+                op = flip(op);
+            }
+            comparisons.add(new Comparison(cond.getColumnDesc().getColumn(), op, value));
+        }
+        return comparisons;
+    }
+
+    /**
+     * Hive orders strings by their bytes while the database follows the collation of the column,
+     * so a string range may drop rows that Hive would keep. String values are only compared
+     * with = unless <code>stringRanges</code> is set.
+     * 
+     * @return the comparisons AND-ed as SQL conditions, or null if none can be pushed
+     */
+    public static String toSql(List<Comparison> comparisons, boolean stringRanges) {
+        final StringBuilder buf = new StringBuilder(64);
+        for(Comparison c : comparisons) {
+            if(!stringRanges && c.getValue() instanceof String && !"=".equals(c.getOperator())) {
+                continue;
+            }
+            if(buf.length() != 0) {
+                buf.append(" AND ");
+            }
+            buf.append(c.getColumn()).append(' ').append(c.getOperator()).append(' ').append(toSqlLiteral(c.getValue()));
+        }
+        return buf.length() == 0 ? null : buf.toString();
+    }
+
+    /**
+     * Hive converts the operands of a comparison of different types, which SQL may reject or do
+     * differently.
+     */
+    private static boolean isComparable(TypeInfo columnType, Object value) {
+        if(columnType.getCategory() != Category.PRIMITIVE) {
+            return false;
+        }
+        switch(((PrimitiveTypeInfo) columnType).getPrimitiveCategory()) {
+            case STRING:
+                return value instanceof String;
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+                return value instanceof Number;
+            case BOOLEAN:
+                return value instanceof Boolean;
+            default:
+                return false;
+        }
+    }
+
+    private static String toSqlOperator(String udfName) {
+        if(GenericUDFOPEqual.class.getName().equals(udfName)) {
+            return "=";
+        } else if(GenericUDFOPLessThan.class.getName().equals(udfName)) {
+            return "<";
+        } else if(GenericUDFOPEqualOrLessThan.class.getName().equals(udfName)) {
+            return "<=";
+        } else if(GenericUDFOPGreaterThan.class.getName().equals(udfName)) {
+            return ">";
+        } else if(GenericUDFOPEqualOrGreaterThan.class.getName().equals(udfName)) {
+            return ">=";
+        }
+        return null;
+    }
+
+    private static String flip(String op) {
+        if("<".equals(op)) {
+            return ">";
+        } else if("<=".equals(op)) {
+            return ">=";
+        } else if(">".equals(op)) {
+            return "<";
+        } else if(">=".equals(op)) {
+            return "<=";
+        }
+        return op;
+    }
+
+    /**
+     * @return null if the value cannot be written in SQL
+     */
+    private static String toSqlLiteral(Object value) {
+        if(value instanceof String) {
+            return '\'' + ((String) value).replace("'", "''") + '\'';
+        } else if(value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            return (Double.isNaN(d) || Double.isInfinite(d)) ? null : value.toString();
+        } else if(value instanceof Number) {
+            return value.toString();
+        } else if(value instanceof Boolean) {
+            return ((Boolean) value).booleanValue() ? "TRUE" : "FALSE";
+        }
+        return null;
+    }
+
+    /**
+     * <code>column operator value</code>
+     */
+    public static final class Comparison {
+        private final String column;
+        private final String operator;
+        private final Object value;
+
+        public Comparison(String column, String operator, Object value) {
+            this.column = column;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        /**
+         * @return one of =, <, <=, >, >=
+         */
+        public String getOperator() {
+            return operator;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return column + ' ' + operator + ' ' + value;
+        }
+    }
+
+}
@@ -15,19 +15,44 @@
  */
 package org.apache.hadoop.hive.jdbc.storagehandler;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.jdbc.storagehandler.JdbcFilterPushdown.Comparison;
+import org.apache.hadoop.hive.ql.exec.Operator;
+import org.apache.hadoop.hive.ql.exec.TableScanOperator;
+import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.ql.plan.MapredWork;
+import org.apache.hadoop.hive.ql.plan.PartitionDesc;
+import org.apache.hadoop.hive.ql.plan.TableDesc;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.RecordReader;
 import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.mapred.lib.db.DBInputFormat;
+import org.apache.hadoop.mapreduce.lib.db.DBConfiguration;
 
 public class JdbcInputFormat extends DBInputFormat<DbRecordWritable> {
+    private static final Log LOG = LogFactory.getLog(JdbcInputFormat.class);
 
     private boolean jobConfSet = false;
+    private JdbcTableSample sample = null;
+    private String conditions = null;
 
     /**
      * @see org.apache.hadoop.util.ReflectionUtils#setConf(Object, Configuration)
@@ -52,7 +77,17 @@ public class JdbcInputFormat extends DBInputFormat<DbRecordWritable> {
             super.configure(jobConf);
             this.jobConfSet = true;
         }
-        return super.getRecordReader(split, jobConf, reporter);
+        if(getDBProductName().startsWith("ORACLE")) {
+            // Oracle does not support LIMIT and OFFSET
+            return super.getRecordReader(split, jobConf, reporter);
+        }
+        final DBConfiguration dbConf = getDBConf();
+        try {
+            String cond = getFilterConditions(jobConf, dbConf.getInputConditions(), JdbcFilterPushdown.getComparisons(jobConf));
+            return new JdbcRecordReader((DBInputSplit) split, jobConf, getConnection(), dbConf, cond, dbConf.getInputFieldNames(), dbConf.getInputTableName(), reporter);
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage());
+        }
     }
 
     @Override
@@ -61,7 +96,285 @@ public class JdbcInputFormat extends DBInputFormat<DbRecordWritable> {
             super.configure(jobConf);
             this.jobConfSet = true;
         }
-        return super.getSplits(jobConf, chunks);
+        final DBConfiguration dbConf = getDBConf();
+        if(getDBProductName().startsWith("ORACLE")) {
+            // the splits must be counted as the Oracle reader of Hadoop reads them, which only
+            // applies DBConfiguration#INPUT_CONDITIONS_PROPERTY
+            this.conditions = dbConf.getInputConditions();
+            this.sample = null;
+            return super.getSplits(jobConf, chunks);
+        }
+        final List<Comparison> comparisons = JdbcFilterPushdown.getComparisons(jobConf);
+        this.conditions = getFilterConditions(jobConf, dbConf.getInputConditions(), comparisons);
+        final List<RemotePartition> partitions;
+        try {
+            JdbcDialect dialect = JdbcDialect.getDialect(getConnection(), jobConf);
+            this.sample = JdbcTableSample.newInstance(jobConf, getConnection(), dialect);
+            if(jobConf.getBoolean(Constants.INPUT_PARTITIONS, true)
+                    && dbConf.getInputQuery() == null && dbConf.getInputCountQuery() == null) {
+                partitions = dialect.getPartitions(getConnection(), dbConf.getInputTableName());
+            } else {
+                partitions = null;
+            }
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage());
+        }
+        if(partitions == null || partitions.isEmpty()) {
+            return super.getSplits(jobConf, chunks);
+        }
+        final List<RemotePartition> matching = new ArrayList<RemotePartition>(partitions.size());
+        for(RemotePartition partition : partitions) {
+            if(partition.mayMatch(comparisons)) {
+                matching.add(partition);
+            } else {
+                LOG.info("Pruned the remote partition " + partition);
+            }
+        }
+        if(matching.size() > chunks) {
+            // a split never spans two partitions; the database still prunes by the pushed conditions
+            LOG.info(matching.size() + " remote partitions of " + dbConf.getInputTableName()
+                    + " exceed " + chunks + " splits; splitting the table as a whole");
+            return super.getSplits(jobConf, chunks);
+        }
+        try {
+            return getPartitionSplits(matching, partitions.size(), chunks);
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            closeConnection();
+        }
+    }
+
+    /**
+     * Splits each remote partition, so that a split never spans two partitions. Each non-empty
+     * partition gets one split, and the rest of the splits are allocated in proportion to the rows
+     * of the partitions, so that there are at most <code>chunks</code> splits.
+     */
+    private InputSplit[] getPartitionSplits(List<RemotePartition> partitions, int numPartitions, int chunks)
+            throws SQLException {
+        final DBConfiguration dbConf = getDBConf();
+        final String tableName = dbConf.getInputTableName();
+        final String cond = getInputConditions(conditions, sample);
+        final List<String> names = new ArrayList<String>(partitions.size());
+        final List<Long> counts = new ArrayList<Long>(partitions.size());
+        long total = 0L;
+        final Connection conn = getConnection();
+        final Statement stmt = conn.createStatement();
+        try {
+            for(RemotePartition partition : partitions) {
+                StringBuilder query = new StringBuilder(128);
+                query.append("SELECT COUNT(*) FROM ").append(getInputSource(dbConf, tableName, partition.getName(), sample));
+                if(cond != null && cond.length() > 0) {
+                    query.append(" WHERE (").append(cond).append(')');
+                }
+                ResultSet rs = stmt.executeQuery(query.toString());
+                long count = rs.next() ? rs.getLong(1) : 0L;
+                rs.close();
+                if(count > 0L) {
+                    names.add(partition.getName());
+                    counts.add(count);
+                    total += count;
+                }
+            }
+            conn.commit();
+        } finally {
+            stmt.close();
+        }
+
+        final int extra = chunks - names.size();
+        final List<InputSplit> splits = new ArrayList<InputSplit>(chunks);
+        for(int i = 0; i < names.size(); i++) {
+            final long count = counts.get(i);
+            final int n = (int) Math.min(count, 1L + (long) (extra * (double) count / total));
+            final long chunkSize = count / n;
+            for(int j = 0; j < n; j++) {
+                long start = j * chunkSize;
+                long end = (j + 1 == n) ? count : (start + chunkSize);
+                splits.add(new JdbcInputSplit(names.get(i), start, end));
+            }
+        }
+        if(LOG.isInfoEnabled()) {
+            LOG.info(splits.size() + " splits over " + names.size() + " of " + numPartitions
+                    + " remote partitions of " + tableName);
+        }
+        return splits.toArray(new InputSplit[splits.size()]);
+    }
+
+    @Override
+    protected String getCountQuery() {
+        final DBConfiguration dbConf = getDBConf();
+        if(dbConf.getInputCountQuery() != null) {
+            return dbConf.getInputCountQuery();
+        }
+        final StringBuilder query = new StringBuilder(128);
+        query.append("SELECT COUNT(*) FROM ").append(getInputSource(dbConf, dbConf.getInputTableName(), null, sample));
+        String cond = getInputConditions(conditions, sample);
+        if(cond != null && cond.length() > 0) {
+            query.append(" WHERE (").append(cond).append(')');
+        }
+        return query.toString();
+    }
+
+    /**
+     * @return the user conditions AND-ed with the comparisons pushed by Hive, if any
+     */
+    static String getFilterConditions(JobConf jobConf, String conditions, List<Comparison> comparisons) {
+        String pushed = JdbcFilterPushdown.toSql(comparisons, jobConf.getBoolean(Constants.INPUT_PUSHDOWN_STRING_RANGES, false));
+        if(pushed == null) {
+            return conditions;
+        }
+        if(conditions == null || conditions.length() == 0) {
+            return pushed;
+        }
+        return '(' + conditions + ") AND " + pushed;
+    }
+
+    // the Hive table name may be qualified by the database, which is not valid as an alias;
+    // written without AS, which Oracle rejects before a table alias
+    private static final String INPUT_ALIAS = "t";
+
+    /**
+     * @return the table, or the given partition of it or "mapred.jdbc.input.query" as a subquery
+     *         under a fixed alias
+     */
+    static String getInputSource(DBConfiguration dbConf, String tableName, String partition, JdbcTableSample sample) {
+        final String inputQuery = dbConf.getInputQuery();
+        final String source;
+        if(inputQuery != null) {
+            source = '(' + inputQuery + ") " + INPUT_ALIAS;
+        } else if(partition != null) {
+            source = partition + ' ' + INPUT_ALIAS;
+        } else {
+            source = tableName;
+        }
+        if(sample != null && sample.getTableSampleClause() != null) {
+            return source + ' ' + sample.getTableSampleClause();
+        }
+        return source;
+    }
+
+    /**
+     * @return the conditions AND-ed with the sampling predicate, if any
+     */
+    static String getInputConditions(String conditions, JdbcTableSample sample) {
+        if(sample == null || sample.getPredicate() == null) {
+            return conditions;
+        }
+        if(conditions == null || conditions.length() == 0) {
+            return sample.getPredicate();
+        }
+        return '(' + conditions + ") AND " + sample.getPredicate();
+    }
+
+    /**
+     * @return the plan of the running job, or null if not available (e.g., in a fetch task)
+     */
+    static MapredWork getMapRedWork(Configuration conf) {
+        try {
+            return Utilities.getMapRedWork(conf);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the aliases of the query plan reading the input table of the conf
+     */
+    static List<String> getTableAliases(MapredWork work, Configuration conf) {
+        final List<String> aliases = new ArrayList<String>(2);
+        final String tableName = conf.get(DBConfiguration.INPUT_TABLE_NAME_PROPERTY);
+        final String url = conf.get(DBConfiguration.URL_PROPERTY);
+        if(tableName == null || url == null || work.getAliasToPartnInfo() == null) {
+            return aliases;
+        }
+        for(Map.Entry<String, PartitionDesc> e : work.getAliasToPartnInfo().entrySet()) {
+            TableDesc tableDesc = e.getValue().getTableDesc();
+            if(tableDesc == null) {
+                continue;
+            }
+            // resolved in the same way as JdbcStorageHandler#configureJobProperties
+            Properties props = tableDesc.getProperties();
+            String name = props.getProperty(DBConfiguration.INPUT_TABLE_NAME_PROPERTY, tableDesc.getTableName());
+            if(tableName.equals(name) && url.equals(props.getProperty(DBConfiguration.URL_PROPERTY))) {
+                aliases.add(e.getKey());
+            }
+        }
+        return aliases;
+    }
+
+    /**
+     * @return true if no column of the input table is needed, e.g., for count(*)
+     */
+    static boolean isEmptyProjection(Configuration conf) {
+        // an empty list of column ids also means that all the columns are read
+        String ids = conf.get(ColumnProjectionUtils.READ_COLUMN_IDS_CONF_STR);
+        if(ids == null || ids.length() != 0) {
+            return false;
+        }
+        final MapredWork work = getMapRedWork(conf);
+        if(work == null || work.getAliasToWork() == null) {
+            return false;
+        }
+        final List<String> aliases = getTableAliases(work, conf);
+        if(aliases.isEmpty()) {
+            return false;
+        }
+        for(String alias : aliases) {
+            Operator<?> op = work.getAliasToWork().get(alias);
+            if(!(op instanceof TableScanOperator)) {
+                return false;
+            }
+            List<Integer> needed = ((TableScanOperator) op).getNeededColumnIDs();
+            if(needed == null || !needed.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A range of rows of a remote partition, or of the table if the partition is null.
+     */
+    public static class JdbcInputSplit extends DBInputSplit {
+
+        private String partition;
+
+        public JdbcInputSplit() {
+            super();
+        }
+
+        public JdbcInputSplit(String partition, long start, long end) {
+            super(start, end);
+            this.partition = partition;
+        }
+
+        /**
+         * @return the partition read in place of the table, or null
+         */
+        public String getPartition() {
+            return partition;
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            super.write(out);
+            out.writeBoolean(partition != null);
+            if(partition != null) {
+                Text.writeString(out, partition);
+            }
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            super.readFields(in);
+            this.partition = in.readBoolean() ? Text.readString(in) : null;
+        }
+
+        @Override
+        public String toString() {
+            return (partition == null ? "" : partition + ' ') + getStart() + "-" + getEnd();
+        }
+
     }
 
 }
@@ -16,17 +16,24 @@
 package org.apache.hadoop.hive.jdbc.storagehandler;
 
 import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
 import java.util.Properties;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.ql.exec.FileSinkOperator.RecordWriter;
 import org.apache.hadoop.hive.ql.io.HiveOutputFormat;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.TaskAttemptID;
 import org.apache.hadoop.mapred.lib.db.DBOutputFormat;
+import org.apache.hadoop.mapreduce.lib.db.DBConfiguration;
 import org.apache.hadoop.util.Progressable;
 
 public class JdbcOutputFormat<V> extends DBOutputFormat<DbRecordWritable, V>
@@ -41,7 +48,17 @@ public class JdbcOutputFormat<V> extends DBOutputFormat<DbRecordWritable, V>
             LOG.debug("tableProperties: " + tableProperties);
         }
 
-        DBRecordWriter dbwriter = (DBRecordWriter) super.getRecordWriter(null, jobConf, null, progress);
+        if(jobConf.get(DBConfiguration.INPUT_QUERY) != null
+                && tableProperties.getProperty(DBConfiguration.OUTPUT_TABLE_NAME_PROPERTY) == null) {
+            throw new IOException("Cannot write to a table defined by " + DBConfiguration.INPUT_QUERY
+                    + " unless " + DBConfiguration.OUTPUT_TABLE_NAME_PROPERTY + " is set");
+        }
+
+        final DBConfiguration dbConf = new DBConfiguration(jobConf);
+        final String[] fieldNames = dbConf.getOutputFieldNames();
+        String tableName = dbConf.getOutputTableName();
+        final String stagingTable = jobConf.getBoolean(Constants.OUTPUT_STAGING, false)
+                ? getStagingTableName(jobConf, tableName) : null;
 
         /*
         DBInputFormat.setInput(jobConf, DbRecordWritable.class, inputClass, inputQuery, inputCountQuery);
@@ -49,9 +66,139 @@ public class JdbcOutputFormat<V> extends DBOutputFormat<DbRecordWritable, V>
         DBOutputFormat.setOutput(jobConf, tableName, fieldNames);
         */
 
-        return new JdbcRecordWriter(dbwriter);
+        final Connection conn;
+        try {
+            conn = dbConf.getConnection();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e.getMessage());
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage());
+        }
+        final DBRecordWriter dbwriter;
+        final JdbcDialect dialect;
+        try {
+            conn.setAutoCommit(false);
+            dialect = JdbcDialect.getDialect(conn, jobConf);
+            if(stagingTable != null) {
+                JdbcDialect.executeUpdate(conn, dialect.getCreateStagingTableQuery(stagingTable, tableName));
+                conn.commit();
+                tableName = stagingTable;
+            }
+            // staged rows are upserted when the staging tables are published
+            final String[] upsertKeys = getUpsertKeys(jobConf);
+            final String query = (upsertKeys == null || stagingTable != null) ? constructQuery(tableName, fieldNames)
+                    : dialect.getUpsertQuery(tableName, fieldNames, upsertKeys);
+            PreparedStatement stmt = conn.prepareStatement(query);
+            dbwriter = new JdbcDBRecordWriter(conn, stmt);
+        } catch (SQLException e) {
+            closeQuietly(conn);
+            throw new IOException(e.getMessage());
+        }
+        return new JdbcRecordWriter(dbwriter, dialect, stagingTable, BatchSizeController.newInstance(jobConf));
     }
 
+    /**
+     * @return the key columns of "mapred.jdbc.output.upsert.keys", or null
+     */
+    static String[] getUpsertKeys(Configuration conf) {
+        return getUpsertKeys(conf.get(Constants.OUTPUT_UPSERT_KEYS));
+    }
+
+    private static String[] getUpsertKeys(String keys) {
+        if(keys == null || keys.trim().length() == 0) {
+            return null;
+        }
+        String[] names = keys.split(",");
+        for(int i = 0; i < names.length; i++) {
+            names[i] = names[i].trim();
+        }
+        return names;
+    }
+
+    /**
+     * Checks that the upsert keys, if any, are output columns.
+     * 
+     * @see JdbcStorageHandler#configureOutputJobProperties
+     */
+    static void checkUpsertKeys(Map<String, String> jobProperties) {
+        final String[] keys = getUpsertKeys(jobProperties.get(Constants.OUTPUT_UPSERT_KEYS));
+        final String fieldNames = jobProperties.get(DBConfiguration.OUTPUT_FIELD_NAMES_PROPERTY);
+        if(keys == null || fieldNames == null) {
+            return;
+        }
+        final String[] fields = fieldNames.split(",");
+        for(int i = 0; i < fields.length; i++) {
+            fields[i] = fields[i].trim();
+        }
+        for(String key : keys) {
+            if(!JdbcDialect.contains(fields, key)) {
+                throw new IllegalArgumentException(Constants.OUTPUT_UPSERT_KEYS + " '" + key
+                        + "' is not one of the columns: " + fieldNames);
+            }
+        }
+    }
+
+    private static String getStagingTableName(JobConf jobConf, String tableName)
+            throws IOException {
+        String hooks = jobConf.get(Constants.HIVE_POST_EXEC_HOOKS, "");
+        if(!hooks.contains(JdbcCommitHook.class.getName())) {
+            throw new IOException(Constants.OUTPUT_STAGING + " requires "
+                    + JdbcCommitHook.class.getName() + " in " + Constants.HIVE_POST_EXEC_HOOKS);
+        }
+        // two attempts of a task running at once would publish their rows twice
+        if(jobConf.getBoolean(Constants.MAP_SPECULATIVE, true)
+                || jobConf.getBoolean(Constants.REDUCE_SPECULATIVE, true)) {
+            throw new IOException(Constants.OUTPUT_STAGING + " requires "
+                    + Constants.MAP_SPECULATIVE + "=false and " + Constants.REDUCE_SPECULATIVE
+                    + "=false");
+        }
+        String queryId = jobConf.get(Constants.HIVE_QUERY_ID);
+        if(queryId == null) {
+            throw new IOException(Constants.HIVE_QUERY_ID + " is not set");
+        }
+        int partition = jobConf.getInt("mapred.task.partition", 0);
+        String attemptId = jobConf.get("mapred.task.id");
+        int attempt = (attemptId == null) ? 0 : TaskAttemptID.forName(attemptId).getId();
+        return getStagingTablePrefix(tableName, queryId) + partition + '_' + attempt;
+    }
+
+    private static void closeQuietly(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            LOG.warn(e.getMessage());
+        }
+    }
+
+    private final class JdbcDBRecordWriter extends DBRecordWriter {
+
+        JdbcDBRecordWriter(Connection connection, PreparedStatement statement)
+                throws SQLException {
+            super(connection, statement);
+        }
+
+    }
+
+    /**
+     * Staging tables are named {@code <table>_stg_<query hash>_<task partition>_<attempt>} so
+     * that {@link JdbcCommitHook} can find the ones written by a query. Each attempt writes its
+     * own table, and only the last attempt of each task is published.
+     * 
+     * A table name longer than 20 characters is cut and followed by its hash, so that the name
+     * stays within the 63 bytes PostgreSQL keeps of an identifier instead of being truncated.
+     */
+    static String getStagingTablePrefix(String tableName, String queryId) {
+        final int dot = tableName.lastIndexOf('.');
+        String name = tableName.substring(dot + 1);
+        if(name.length() > MAX_STAGING_TABLE_BASE) {
+            String hash = Integer.toHexString(name.hashCode());
+            name = name.substring(0, MAX_STAGING_TABLE_BASE - hash.length()) + hash;
+        }
+        return tableName.substring(0, dot + 1) + name + "_stg_" + Integer.toHexString(queryId.hashCode()) + '_';
+    }
+
+    private static final int MAX_STAGING_TABLE_BASE = 20;
+
     @Override
     public org.apache.hadoop.mapred.RecordWriter<DbRecordWritable, V> getRecordWriter(FileSystem filesystem, JobConf job, String name, Progressable progress)
             throws IOException {
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2013-2015 Makoto YUI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.jdbc.storagehandler;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapreduce.lib.db.DBConfiguration;
+import org.apache.hadoop.mapreduce.lib.db.DBInputFormat.DBInputSplit;
+import org.apache.hadoop.mapreduce.lib.db.DBRecordReader;
+
+/**
+ * A record reader that reads a split of a table, or of the result of
+ * "mapred.jdbc.input.query", using LIMIT and OFFSET. A {@link JdbcInputFormat.JdbcInputSplit} reads a range of
+ * a single remote partition instead. A sample of the table is read when
+ * {@link JdbcTableSample} applies. When no column is needed, only the rows are counted.
+ * The queries are profiled by {@link QueryProfiler} if enabled.
+ * 
+ * A scan can be resumed after a transient SQL error by reconnecting and reissuing the query
+ * for the rows after the last emitted key. The retries, including failed reconnections, are
+ * bounded per split.
+ *
+ * -- the key must be a unique column that is also a column of the table
+ * "mapred.jdbc.input.resume.key"="id"
+ *
+ * @see Constants#INPUT_RESUME_KEY
+ */
+public class JdbcRecordReader extends DBRecordReader<DbRecordWritable>
+        implements RecordReader<LongWritable, DbRecordWritable> {
+    private static final Log LOG = LogFactory.getLog(JdbcRecordReader.class);
+
+    public static enum Counter {
+        SCAN_RETRIES
+    }
+
+    private final DBInputSplit split;
+    private final DBConfiguration dbConf;
+    private final Reporter reporter;
+
+    private final String resumeKey;
+    private final int resumeKeyIndex;
+    private final int maxRetries;
+    private final long backoffMillis;
+    private int retries = 0;
+    private final boolean mysql;
+    private final JdbcDialect dialect;
+    private final JdbcTableSample sample;
+    // a remote partition read in place of the table, or null
+    private final String partition;
+    private final QueryProfiler profiler;
+    // no column is needed, e.g., for count(*)
+    private final boolean emptyProjection;
+
+    private Connection connection;
+    private ResultSet results = null;
+    private long pos = 0L;
+    private LongWritable key = null;
+    private DbRecordWritable value = null;
+    private Object lastKey = null;
+    private long rowCount = -1L;
+
+    public JdbcRecordReader(DBInputSplit split, JobConf conf, Connection conn, DBConfiguration dbConf, String cond, String[] fields, String table, Reporter reporter)
+            throws SQLException {
+        super(split, DbRecordWritable.class, conf, conn, dbConf, cond, fields, table);
+        this.split = split;
+        this.dbConf = dbConf;
+        this.reporter = reporter;
+        this.connection = conn;
+        this.resumeKey = conf.get(Constants.INPUT_RESUME_KEY);
+        this.resumeKeyIndex = (resumeKey == null) ? -1 : indexOf(fields, resumeKey);
+        this.maxRetries = conf.getInt(Constants.INPUT_RESUME_RETRIES, 3);
+        this.backoffMillis = conf.getLong(Constants.INPUT_RESUME_BACKOFF, 1000L);
+        this.mysql = conn.getMetaData().getDatabaseProductName().toUpperCase().startsWith("MYSQL");
+        this.dialect = JdbcDialect.getDialect(conn, conf);
+        this.sample = JdbcTableSample.newInstance(conf, conn, dialect);
+        this.partition = (split instanceof JdbcInputFormat.JdbcInputSplit) ? ((JdbcInputFormat.JdbcInputSplit) split).getPartition() : null;
+        this.profiler = QueryProfiler.newInstance(conf, split.getStart(), split.getEnd() - split.getStart());
+        this.emptyProjection = JdbcInputFormat.isEmptyProjection(conf);
+        if(resumeKey != null && resumeKeyIndex == -1) {
+            throw new SQLException(Constants.INPUT_RESUME_KEY + " '" + resumeKey
+                    + "' is not one of the columns: " + dbConf.getConf().get(DBConfiguration.INPUT_FIELD_NAMES_PROPERTY));
+        }
+    }
+
+    private static int indexOf(String[] fields, String name) {
+        for(int i = 0; i < fields.length; i++) {
+            if(fields[i].trim().equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    protected String getSelectQuery() {
+        final StringBuilder query = new StringBuilder(128);
+        final String[] fieldNames = getFieldNames();
+        query.append("SELECT ");
+        for(int i = 0; i < fieldNames.length; i++) {
+            if(i != 0) {
+                query.append(", ");
+            }
+            query.append(fieldNames[i]);
+        }
+        appendFromClause(query);
+        String orderBy = (resumeKey == null) ? dbConf.getInputOrderBy() : resumeKey;
+        if(orderBy != null && orderBy.length() > 0) {
+            query.append(" ORDER BY ").append(orderBy);
+        }
+        appendLimitClause(query);
+        return query.toString();
+    }
+
+    /**
+     * @return a query counting the rows of this split
+     */
+    protected String getCountQuery() {
+        final StringBuilder query = new StringBuilder(128);
+        query.append("SELECT COUNT(*) FROM (SELECT 1 AS c");
+        appendFromClause(query);
+        appendLimitClause(query);
+        query.append(") AS t");
+        return query.toString();
+    }
+
+    private void appendFromClause(StringBuilder query) {
+        final String conditions = JdbcInputFormat.getInputConditions(getConditions(), sample);
+        query.append(" FROM ").append(JdbcInputFormat.getInputSource(dbConf, getTableName(), partition, sample));
+        boolean hasConditions = conditions != null && conditions.length() > 0;
+        if(hasConditions) {
+            query.append(" WHERE (").append(conditions).append(')');
+        }
+        if(lastKey != null) {
+            query.append(hasConditions ? " AND " : " WHERE ").append(resumeKey).append(" > ?");
+        }
+    }
+
+    private void appendLimitClause(StringBuilder query) {
+        try {
+            if(lastKey == null) {
+                query.append(" LIMIT ").append(split.getLength());
+                query.append(" OFFSET ").append(split.getStart());
+            } else {
+                // the remaining rows of this split directly follow the last key
+                query.append(" LIMIT ").append(split.getLength() - pos);
+            }
+        } catch (IOException ex) {
+            // ignore, will not throw.
+        }
+    }
+
+    @Override
+    protected ResultSet executeQuery(String query) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        if(mysql) {
+            // streams the results as MySQLDBRecordReader does
+            statement.setFetchSize(Integer.MIN_VALUE);
+        }
+        setStatement(statement);
+        final Object[] params = (lastKey == null) ? new Object[0] : new Object[] { lastKey };
+        for(int i = 0; i < params.length; i++) {
+            statement.setObject(i + 1, params[i]);
+        }
+        if(profiler == null) {
+            return statement.executeQuery();
+        }
+        profiler.explain(connection, dialect, query, params);
+        profiler.start(query, params);
+        ResultSet rs = statement.executeQuery();
+        profiler.executed();
+        return rs;
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public boolean nextKeyValue() throws IOException {
+        if(key == null) {
+            this.key = new LongWritable();
+        }
+        if(value == null) {
+            this.value = createValue();
+        }
+        if(emptyProjection) {
+            return nextEmptyRow();
+        }
+        while(true) {
+            try {
+                if(results == null) {
+                    this.results = executeQuery(getSelectQuery());
+                }
+                if(!results.next()) {
+                    if(profiler != null) {
+                        profiler.finish("OK");
+                    }
+                    return false;
+                }
+                key.set(pos + split.getStart());
+                value.readFields(results);
+                if(profiler != null) {
+                    profiler.row(value);
+                }
+                if(resumeKey != null) {
+                    this.lastKey = results.getObject(resumeKeyIndex + 1);
+                }
+                pos++;
+                return true;
+            } catch (SQLException e) {
+                if(profiler != null) {
+                    profiler.finish("FAILED " + e.getMessage());
+                }
+                if(resumeKey == null || !isTransient(e)) {
+                    throw new IOException(e.getMessage());
+                }
+                resume(e);
+            }
+        }
+    }
+
+    /**
+     * Reconnects after backing off, until a connection is made or the retries of this split are
+     * used up.
+     */
+    private void resume(SQLException cause) throws IOException {
+        SQLException e = cause;
+        while(true) {
+            if(retries >= maxRetries) {
+                throw new IOException(e.getMessage());
+            }
+            retries++;
+            LOG.warn("Resuming the scan after " + resumeKey + " = " + lastKey + " (retry "
+                    + retries + '/' + maxRetries + "): " + e.getMessage());
+            if(reporter != null) {
+                reporter.incrCounter(Counter.SCAN_RETRIES, 1L);
+            }
+            try {
+                reconnect(backoffMillis << (retries - 1));
+                return;
+            } catch (SQLException ce) {
+                if(!isTransient(ce)) {
+                    throw new IOException(ce.getMessage());
+                }
+                e = ce;
+            }
+        }
+    }
+
+    /**
+     * Counts the rows of this split by a single query and emits as many rows of NULLs.
+     */
+    private boolean nextEmptyRow() throws IOException {
+        if(rowCount == -1L) {
+            try {
+                String query = getCountQuery();
+                this.results = executeQuery(query);
+                this.rowCount = results.next() ? results.getLong(1) : 0L;
+                if(profiler != null) {
+                    profiler.finish("COUNT " + rowCount);
+                }
+                if(LOG.isDebugEnabled()) {
+                    LOG.debug(rowCount + " rows by " + query);
+                }
+            } catch (SQLException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+        if(pos >= rowCount) {
+            return false;
+        }
+        key.set(pos + split.getStart());
+        value.reset(getFieldNames().length);
+        pos++;
+        return true;
+    }
+
+    private static boolean isTransient(SQLException e) {
+        if(e instanceof SQLTransientException || e instanceof SQLRecoverableException) {
+            return true;
+        }
+        // SQLSTATE class 08: connection exception
+        String state = e.getSQLState();
+        return state != null && state.startsWith("08");
+    }
+
+    private void reconnect(long sleepMillis) throws IOException, SQLException {
+        closeQuietly();
+        try {
+            Thread.sleep(sleepMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while resuming the scan");
+        }
+        final Connection conn;
+        try {
+            conn = dbConf.getConnection();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e.getMessage());
+        }
+        try {
+            conn.setAutoCommit(false);
+            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        this.connection = conn;
+    }
+
+    private void closeQuietly() {
+        try {
+            if(results != null) {
+                results.close();
+            }
+            if(getStatement() != null) {
+                getStatement().close();
+            }
+        } catch (SQLException e) {
+            // the connection may be broken
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // the connection may be broken
+        }
+        this.results = null;
+        setStatement(null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(profiler != null) {
+            profiler.finish("CLOSED");
+        }
+        try {
+            if(results != null) {
+                results.close();
+            }
+            if(getStatement() != null) {
+                getStatement().close();
+            }
+            connection.commit();
+            connection.close();
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    @Override
+    public LongWritable getCurrentKey() {
+        return key;
+    }
+
+    @Override
+    public DbRecordWritable getCurrentValue() {
+        return value;
+    }
+
+    @Override
+    public LongWritable createKey() {
+        return new LongWritable();
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public boolean next(LongWritable k, DbRecordWritable v) throws IOException {
+        this.key = k;
+        this.value = v;
+        return nextKeyValue();
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public long getPos() throws IOException {
+        return pos;
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+        return pos / (float) split.getLength();
+    }
+
+}
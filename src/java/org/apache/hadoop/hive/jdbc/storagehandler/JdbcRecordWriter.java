@@ -17,6 +17,7 @@ package org.apache.hadoop.hive.jdbc.storagehandler;
 
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
 import org.apache.commons.logging.Log;
@@ -31,16 +32,54 @@ public class JdbcRecordWriter implements RecordWriter {
 
     @SuppressWarnings("rawtypes")
     private final DBRecordWriter delegate;
+    private final JdbcDialect dialect;
+    private final String stagingTable;
+    private final BatchSizeController batchSizer;
+
+    private int batched = 0;
+    private long batches = 0L;
 
     @SuppressWarnings("rawtypes")
     public JdbcRecordWriter(DBRecordWriter writer) {
+        this(writer, new JdbcDialect(), null, new BatchSizeController(BatchSizeController.DEFAULT_BATCH_SIZE, BatchSizeController.DEFAULT_BATCH_SIZE_MIN, BatchSizeController.DEFAULT_BATCH_SIZE_MAX, BatchSizeController.DEFAULT_BATCH_LATENCY));
+    }
+
+    /**
+     * @param stagingTable the table to be dropped on abort, or null
+     */
+    @SuppressWarnings("rawtypes")
+    public JdbcRecordWriter(DBRecordWriter writer, JdbcDialect dialect, String stagingTable, BatchSizeController batchSizer) {
         this.delegate = writer;
+        this.dialect = dialect;
+        this.stagingTable = stagingTable;
+        this.batchSizer = batchSizer;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public void write(Writable w) throws IOException {
-        delegate.write((DbRecordWritable) w, null);
+        final PreparedStatement statement = delegate.getStatement();
+        try {
+            ((DbRecordWritable) w).write(statement, dialect);
+            statement.addBatch();
+            if(++batched >= batchSizer.getBatchSize()) {
+                executeBatch(statement);
+            }
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private void executeBatch(PreparedStatement statement) throws SQLException {
+        long start = System.nanoTime();
+        statement.executeBatch();
+        long elapsed = System.nanoTime() - start;
+        batchSizer.update(batched, elapsed);
+        if(LOG.isDebugEnabled()) {
+            LOG.debug("Executed a batch of " + batched + " rows in " + (elapsed / 1000000L)
+                    + " msec, next batch size: " + batchSizer.getBatchSize());
+        }
+        this.batched = 0;
+        this.batches++;
     }
 
     @Override
@@ -49,6 +88,10 @@ public class JdbcRecordWriter implements RecordWriter {
             Connection conn = delegate.getConnection();
             try {
                 conn.rollback();
+                if(stagingTable != null) {
+                    dialect.dropTableIfExists(conn, stagingTable);
+                    conn.commit();
+                }
             } catch (SQLException ex) {
                 LOG.warn(StringUtils.stringifyException(ex));
             } finally {
@@ -59,6 +102,18 @@ public class JdbcRecordWriter implements RecordWriter {
                 }
             }
         } else {
+            if(batched > 0) {
+                try {
+                    executeBatch(delegate.getStatement());
+                } catch (SQLException e) {
+                    close(true);
+                    throw new IOException(e.getMessage());
+                }
+            }
+            if(LOG.isInfoEnabled()) {
+                LOG.info("Executed " + batches + " batches, last batch size: "
+                        + batchSizer.getBatchSize());
+            }
             delegate.close(null);
         }
     }
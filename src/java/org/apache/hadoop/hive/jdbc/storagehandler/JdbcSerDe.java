@@ -15,6 +15,7 @@
  */
 package org.apache.hadoop.hive.jdbc.storagehandler;
 
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -26,6 +27,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.serde2.SerDe;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.SerDeStats;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.StructField;
@@ -41,6 +43,8 @@ public class JdbcSerDe implements SerDe {
     private DbRecordWritable cachedWritable;
 
     private int fieldCount;
+    private int[] sqlTypes;
+    private int[] elementTypes;
 
     private StructObjectInspector objectInspector;
     private List<Object> deserializeCache;
@@ -62,18 +66,48 @@ public class JdbcSerDe implements SerDe {
                 + ", columnTypes: " + Arrays.toString(columnTypes);
 
         int[] types = HiveJdbcBridgeUtils.hiveTypesToSqlTypes(columnTypes);
-        this.cachedWritable = new DbRecordWritable(types);
+        int[] elementTypes = new int[types.length];
+        for(int i = 0; i < types.length; i++) {
+            if(types[i] == Types.ARRAY) {
+                elementTypes[i] = HiveJdbcBridgeUtils.getArrayElementType(columnTypes[i]);
+            } else {
+                elementTypes[i] = Types.NULL;
+            }
+        }
+        this.sqlTypes = types;
+        this.elementTypes = elementTypes;
+        this.cachedWritable = new DbRecordWritable(types, elementTypes);
         this.fieldCount = types.length;
 
+        // must agree with DbRecordWritable#setConf
+        String lobThreshold = getProperty(sysConf, tblProps, Constants.INPUT_LOB_THRESHOLD);
+        final boolean lobWritables = lobThreshold != null && Integer.parseInt(lobThreshold) >= 0;
+        final boolean writables = Boolean.parseBoolean(getProperty(sysConf, tblProps, Constants.INPUT_WRITABLES));
+
         final List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>(columnTypes.length);
         for(int i = 0; i < types.length; i++) {
-            ObjectInspector oi = HiveJdbcBridgeUtils.getObjectInspector(types[i], columnTypes[i]);
+            final ObjectInspector oi;
+            if(writables) {
+                oi = HiveJdbcBridgeUtils.getWritableObjectInspector(types[i], columnTypes[i]);
+            } else if(lobWritables) {
+                oi = HiveJdbcBridgeUtils.getLobObjectInspector(types[i], columnTypes[i]);
+            } else {
+                oi = HiveJdbcBridgeUtils.getObjectInspector(types[i], columnTypes[i]);
+            }
             fieldOIs.add(oi);
         }
         this.objectInspector = ObjectInspectorFactory.getStandardStructObjectInspector(columnNames, fieldOIs);
         this.deserializeCache = new ArrayList<Object>(columnTypes.length);
     }
 
+    private static String getProperty(Configuration sysConf, Properties tblProps, String key) {
+        String value = tblProps.getProperty(key);
+        if(value == null && sysConf != null) {
+            value = sysConf.get(key);
+        }
+        return value;
+    }
+
     @Override
     public ObjectInspector getObjectInspector() throws SerDeException {
         return objectInspector;
@@ -103,7 +137,12 @@ public class JdbcSerDe implements SerDe {
             if(structField != null) {
                 Object field = structInspector.getStructFieldData(row, structField);
                 ObjectInspector fieldOI = structField.getFieldObjectInspector();
-                Object javaObject = HiveJdbcBridgeUtils.deparseObject(field, fieldOI);
+                final Object javaObject;
+                if(sqlTypes[i] == Types.ARRAY) {
+                    javaObject = HiveJdbcBridgeUtils.deparseArray(field, (ListObjectInspector) fieldOI);
+                } else {
+                    javaObject = HiveJdbcBridgeUtils.deparseObject(field, fieldOI);
+                }
                 cachedWritable.set(i, javaObject);
             }
         }
@@ -126,6 +165,12 @@ public class JdbcSerDe implements SerDe {
 
         for(int i = 0; i < fieldCount; i++) {
             Object o = tuple.get(i);
+            if(o != null && sqlTypes[i] == Types.ARRAY) {
+                // the driver decides the element type, e.g., Long for int8[]
+                @SuppressWarnings("unchecked")
+                List<Object> list = (List<Object>) o;
+                HiveJdbcBridgeUtils.convertElements(list, elementTypes[i]);
+            }
             deserializeCache.add(o);
         }
 
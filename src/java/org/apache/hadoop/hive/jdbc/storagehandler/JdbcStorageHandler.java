@@ -15,6 +15,8 @@
  */
 package org.apache.hadoop.hive.jdbc.storagehandler;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -25,6 +27,8 @@ import org.apache.hadoop.hive.metastore.HiveMetaHook;
 import org.apache.hadoop.hive.metastore.MetaStoreUtils;
 import org.apache.hadoop.hive.metastore.api.MetaException;
 import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.hadoop.hive.ql.index.IndexPredicateAnalyzer;
+import org.apache.hadoop.hive.ql.index.IndexSearchCondition;
 import org.apache.hadoop.hive.ql.io.HiveOutputFormat;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.metadata.HiveStorageHandler;
@@ -84,6 +88,8 @@ public class JdbcStorageHandler implements HiveStorageHandler, HiveStoragePredic
     @Override
     public void configureOutputJobProperties(TableDesc tableDesc, Map<String, String> jobProperties) {
         configureJobProperties(tableDesc, jobProperties);
+        // fails the query when it is compiled rather than when it is committed
+        JdbcOutputFormat.checkUpsertKeys(jobProperties);
     }
 
     @Override
@@ -141,12 +147,30 @@ public class JdbcStorageHandler implements HiveStorageHandler, HiveStoragePredic
     }
 
     /**
-     * @see DBConfiguration#INPUT_CONDITIONS_PROPERTY
+     * Comparisons between a column and a constant are pushed to the database in addition to
+     * DBConfiguration#INPUT_CONDITIONS_PROPERTY, and used to prune remote partitions. Hive still
+     * evaluates the whole predicate, which only drops the extra rows the database returns; a row
+     * the database filters out is lost. So ranges over strings, whose order depends on the
+     * collation, are only pushed when Constants#INPUT_PUSHDOWN_STRING_RANGES is set.
+     * 
+     * @see JdbcFilterPushdown
      */
     @Override
     public DecomposedPredicate decomposePredicate(JobConf jobConf, Deserializer deserializer, ExprNodeDesc predicate) {
-        // TODO Auto-generated method stub
-        return null;
+        String columnNames = jobConf.get(Constants.LIST_COLUMNS);
+        if(columnNames == null) {
+            return null;
+        }
+        IndexPredicateAnalyzer analyzer = JdbcFilterPushdown.newAnalyzer(columnNames.split(","));
+        List<IndexSearchCondition> conditions = new ArrayList<IndexSearchCondition>();
+        analyzer.analyzePredicate(predicate, conditions);
+        if(conditions.isEmpty()) {
+            return null;
+        }
+        DecomposedPredicate decomposed = new DecomposedPredicate();
+        decomposed.pushedPredicate = analyzer.translateSearchConditions(conditions);
+        decomposed.residualPredicate = predicate;
+        return decomposed;
     }
 
     private static class JDBCHook implements HiveMetaHook {
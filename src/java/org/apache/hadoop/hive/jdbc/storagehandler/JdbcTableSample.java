@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013-2015 Makoto YUI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.jdbc.storagehandler;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.parse.SplitSample;
+import org.apache.hadoop.hive.ql.plan.MapredWork;
+import org.apache.hadoop.mapreduce.lib.db.DBConfiguration;
+
+/**
+ * Sampling of the input table done by the database.
+ *
+ * The percentage is taken from "mapred.jdbc.input.sample.percent" or from
+ * <code>TABLESAMPLE(n PERCENT)</code> on the table, which Hive itself does not apply to
+ * non-native tables.
+ */
+public final class JdbcTableSample {
+    private static final Log LOG = LogFactory.getLog(JdbcTableSample.class);
+
+    private final String tableSampleClause;
+    private final String predicate;
+
+    private JdbcTableSample(String tableSampleClause, String predicate) {
+        this.tableSampleClause = tableSampleClause;
+        this.predicate = predicate;
+    }
+
+    /**
+     * @return a TABLESAMPLE clause following the table alias, or null
+     */
+    public String getTableSampleClause() {
+        return tableSampleClause;
+    }
+
+    /**
+     * @return a predicate selecting the sampled rows, or null
+     */
+    public String getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * @return null if the table is not sampled
+     */
+    public static JdbcTableSample newInstance(Configuration conf, Connection conn, JdbcDialect dialect)
+            throws SQLException {
+        final double percent;
+        final int seed;
+        String percentStr = conf.get(Constants.INPUT_SAMPLE_PERCENT);
+        if(percentStr != null) {
+            percent = Double.parseDouble(percentStr);
+            seed = conf.getInt(Constants.INPUT_SAMPLE_SEED, conf.getInt(Constants.HIVE_SAMPLE_SEED, 0));
+        } else {
+            SplitSample sample = getSplitSample(conf);
+            if(sample == null) {
+                return null;
+            }
+            percent = sample.getPercent();
+            seed = sample.getSeedNum();
+        }
+        if(percent >= 100d) {
+            return null;
+        }
+
+        String column = conf.get(Constants.INPUT_SAMPLE_COLUMN);
+        if(column != null) {
+            return new JdbcTableSample(null, dialect.getSamplePredicate(column, percent, seed));
+        }
+        if(conf.get(DBConfiguration.INPUT_QUERY) == null) {
+            String method = conf.get(Constants.INPUT_SAMPLE_METHOD, "SYSTEM");
+            String clause = dialect.getTableSampleClause(conn, method, percent, seed);
+            if(clause != null) {
+                return new JdbcTableSample(clause, null);
+            }
+        }
+        LOG.warn("Reading all rows of " + conf.get(DBConfiguration.INPUT_TABLE_NAME_PROPERTY)
+                + " for a " + percent + "% sample; set " + Constants.INPUT_SAMPLE_COLUMN
+                + " to sample in the database");
+        return null;
+    }
+
+    /**
+     * @return the split sample of the alias reading this table in the query plan
+     */
+    private static SplitSample getSplitSample(Configuration conf) {
+        final MapredWork work = JdbcInputFormat.getMapRedWork(conf);
+        if(work == null || work.getNameToSplitSample() == null
+                || work.getNameToSplitSample().isEmpty()) {
+            return null;
+        }
+        for(String alias : JdbcInputFormat.getTableAliases(work, conf)) {
+            SplitSample sample = work.getNameToSplitSample().get(alias);
+            if(sample != null) {
+                return sample;
+            }
+        }
+        return null;
+    }
+
+}
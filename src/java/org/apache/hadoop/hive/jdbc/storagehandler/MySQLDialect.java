@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013-2015 Makoto YUI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.jdbc.storagehandler;
+
+import java.util.Collections;
+import java.util.List;
+
+public class MySQLDialect extends JdbcDialect {
+
+    public MySQLDialect() {
+        super();
+    }
+
+    @Override
+    public String getUpsertQuery(String table, String[] fieldNames, String[] keys) {
+        final StringBuilder query = new StringBuilder(256);
+        query.append("INSERT INTO ").append(table).append(" (").append(join(fieldNames)).append(") VALUES (");
+        for(int i = 0; i < fieldNames.length; i++) {
+            if(i != 0) {
+                query.append(',');
+            }
+            query.append('?');
+        }
+        query.append(')');
+        appendOnDuplicateKeyUpdate(query, fieldNames, keys);
+        return query.toString();
+    }
+
+    /**
+     * MySQL has no MERGE. The staged rows are inserted in the order of their staging tables, so
+     * that a key staged more than once is updated last by the row of the last staging table.
+     */
+    @Override
+    public List<String> getUpsertStagingTablesQueries(String table, String[] fieldNames, String[] keys, List<String> stagingTables) {
+        final String fields = join(fieldNames);
+        final StringBuilder query = new StringBuilder(256);
+        query.append("INSERT INTO ").append(table).append(" (").append(fields).append(") SELECT ").append(fields).append(" FROM (");
+        appendOrderedUnionAll(query, fields, null, stagingTables);
+        query.append(") u ORDER BY stg_ord");
+        appendOnDuplicateKeyUpdate(query, fieldNames, keys);
+        return Collections.singletonList(query.toString());
+    }
+
+    private static void appendOnDuplicateKeyUpdate(StringBuilder query, String[] fieldNames, String[] keys) {
+        query.append(" ON DUPLICATE KEY UPDATE ");
+        boolean first = true;
+        for(String field : fieldNames) {
+            if(contains(keys, field)) {
+                continue;
+            }
+            if(!first) {
+                query.append(", ");
+            }
+            query.append(field).append(" = VALUES(").append(field).append(')');
+            first = false;
+        }
+        if(first) {
+            // nothing but keys: keep the row as is
+            query.append(keys[0]).append(" = ").append(keys[0]);
+        }
+    }
+
+    @Override
+    protected String getDropForeignKeyQuery(String table, String fkName) {
+        return "ALTER TABLE " + table + " DROP FOREIGN KEY " + fkName;
+    }
+
+    /**
+     * Indexes are named per table in MySQL.
+     */
+    @Override
+    protected String getDropIndexQuery(String table, String indexName) {
+        return "DROP INDEX " + indexName + " ON " + table;
+    }
+
+}
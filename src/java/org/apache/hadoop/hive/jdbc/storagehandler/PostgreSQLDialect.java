@@ -0,0 +1,273 @@
+/*
+ * Copyright 2013-2015 Makoto YUI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.jdbc.storagehandler;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class PostgreSQLDialect extends JdbcDialect {
+
+    public PostgreSQLDialect() {
+        super();
+    }
+
+    /**
+     * Unlogged tables skip WAL, and LIKE does not copy indexes unless INCLUDING INDEXES is given.
+     */
+    @Override
+    public String getCreateStagingTableQuery(String stagingTable, String table) {
+        return "CREATE UNLOGGED TABLE " + stagingTable + " (LIKE " + table
+                + " INCLUDING DEFAULTS)";
+    }
+
+    @Override
+    public String getUpsertQuery(String table, String[] fieldNames, String[] keys) {
+        final StringBuilder query = new StringBuilder(256);
+        query.append("INSERT INTO ").append(table).append(" (").append(join(fieldNames)).append(") VALUES (");
+        for(int i = 0; i < fieldNames.length; i++) {
+            if(i != 0) {
+                query.append(',');
+            }
+            query.append('?');
+        }
+        query.append(')');
+        appendOnConflict(query, fieldNames, keys);
+        return query.toString();
+    }
+
+    /**
+     * An INSERT ... ON CONFLICT cannot update a row twice, so the staged rows are reduced to one
+     * per key first: the last row written to the last staging table wins.
+     */
+    @Override
+    public List<String> getUpsertStagingTablesQueries(String table, String[] fieldNames, String[] keys, List<String> stagingTables) {
+        final String fields = join(fieldNames);
+        final StringBuilder query = new StringBuilder(256);
+        query.append("INSERT INTO ").append(table).append(" (").append(fields).append(") SELECT ").append(fields);
+        query.append(" FROM (SELECT DISTINCT ON (").append(join(keys)).append(") ").append(fields).append(" FROM (");
+        // staging tables are only appended to, so ctid follows the insertion order
+        appendOrderedUnionAll(query, fields, "ctid", stagingTables);
+        query.append(") u ORDER BY ").append(join(keys)).append(", stg_ord DESC, stg_row DESC) s");
+        appendOnConflict(query, fieldNames, keys);
+        return Collections.singletonList(query.toString());
+    }
+
+    private static void appendOnConflict(StringBuilder query, String[] fieldNames, String[] keys) {
+        query.append(" ON CONFLICT (").append(join(keys)).append(')');
+        boolean first = true;
+        for(String field : fieldNames) {
+            if(contains(keys, field)) {
+                continue;
+            }
+            query.append(first ? " DO UPDATE SET " : ", ");
+            query.append(field).append(" = EXCLUDED.").append(field);
+            first = false;
+        }
+        if(first) {
+            query.append(" DO NOTHING");
+        }
+    }
+
+    /**
+     * Uses the catalog so that expression, partial and non-btree indexes are rebuilt as they
+     * were. Indexes backing a constraint are kept.
+     */
+    @Override
+    public List<DeferredConstraint> getDeferrableConstraints(Connection conn, String table)
+            throws SQLException {
+        final List<DeferredConstraint> list = new ArrayList<DeferredConstraint>();
+        PreparedStatement stmt = conn.prepareStatement("SELECT quote_ident(conname), pg_get_constraintdef(oid)"
+                + " FROM pg_constraint WHERE conrelid = ?::regclass AND contype = 'f'");
+        try {
+            stmt.setString(1, table);
+            ResultSet rs = stmt.executeQuery();
+            while(rs.next()) {
+                String name = rs.getString(1);
+                list.add(new DeferredConstraint("ALTER TABLE " + table + " DROP CONSTRAINT "
+                        + name, "ALTER TABLE " + table + " ADD CONSTRAINT " + name + ' '
+                        + rs.getString(2)));
+            }
+            rs.close();
+        } finally {
+            stmt.close();
+        }
+        stmt = conn.prepareStatement("SELECT i.indexrelid::regclass::text, pg_get_indexdef(i.indexrelid)"
+                + " FROM pg_index i WHERE i.indrelid = ?::regclass AND NOT i.indisunique"
+                + " AND NOT EXISTS (SELECT 1 FROM pg_constraint c WHERE c.conindid = i.indexrelid)");
+        try {
+            stmt.setString(1, table);
+            ResultSet rs = stmt.executeQuery();
+            while(rs.next()) {
+                list.add(new DeferredConstraint("DROP INDEX " + rs.getString(1), rs.getString(2)));
+            }
+            rs.close();
+        } finally {
+            stmt.close();
+        }
+        return list;
+    }
+
+    /**
+     * SYSTEM samples pages and BERNOULLI samples rows; both are available since 9.5.
+     */
+    @Override
+    public String getTableSampleClause(Connection conn, String method, double percent, int seed)
+            throws SQLException {
+        final String m = method.trim().toUpperCase();
+        if(!"SYSTEM".equals(m) && !"BERNOULLI".equals(m)) {
+            throw new SQLException("Unsupported TABLESAMPLE method: " + method);
+        }
+        final DatabaseMetaData meta = conn.getMetaData();
+        final int major = meta.getDatabaseMajorVersion();
+        if(major < 9 || (major == 9 && meta.getDatabaseMinorVersion() < 5)) {
+            return null;
+        }
+        return "TABLESAMPLE " + m + " (" + percent + ") REPEATABLE (" + seed + ')';
+    }
+
+    @Override
+    public String getExplainQuery(String query) {
+        return "EXPLAIN " + query;
+    }
+
+    /**
+     * Lists the partitions of a declaratively partitioned table (10+). Bounds are only kept for a
+     * RANGE partitioning on a single numeric or date/time column, as the order of strings depends
+     * on the collation; other partitions are never pruned.
+     */
+    @Override
+    public List<RemotePartition> getPartitions(Connection conn, String table) throws SQLException {
+        final List<RemotePartition> list = new ArrayList<RemotePartition>();
+        if(conn.getMetaData().getDatabaseMajorVersion() < 10) {
+            return list;
+        }
+        String column = null;
+        PreparedStatement stmt = conn.prepareStatement("SELECT pg_get_partkeydef(?::regclass)");
+        try {
+            stmt.setString(1, table);
+            ResultSet rs = stmt.executeQuery();
+            if(rs.next() && rs.getString(1) != null) {
+                Matcher m = RANGE_KEY.matcher(rs.getString(1));
+                if(m.matches()) {
+                    column = m.group(1);
+                }
+            }
+            rs.close();
+        } finally {
+            stmt.close();
+        }
+        if(column != null) {
+            stmt = conn.prepareStatement("SELECT t.typcategory FROM pg_attribute a JOIN pg_type t ON t.oid = a.atttypid"
+                    + " WHERE a.attrelid = ?::regclass AND a.attname = ?");
+            try {
+                stmt.setString(1, table);
+                stmt.setString(2, column);
+                ResultSet rs = stmt.executeQuery();
+                String category = rs.next() ? rs.getString(1) : null;
+                if(!"N".equals(category) && !"D".equals(category)) {
+                    column = null;
+                }
+                rs.close();
+            } finally {
+                stmt.close();
+            }
+        }
+        stmt = conn.prepareStatement("SELECT c.oid::regclass::text, pg_get_expr(c.relpartbound, c.oid)"
+                + " FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid"
+                + " WHERE i.inhparent = ?::regclass AND c.relispartition ORDER BY 1");
+        try {
+            stmt.setString(1, table);
+            ResultSet rs = stmt.executeQuery();
+            while(rs.next()) {
+                String name = rs.getString(1);
+                String bound = rs.getString(2);
+                Matcher m = (column == null || bound == null) ? null : RANGE_BOUND.matcher(bound);
+                if(m != null && m.matches()) {
+                    list.add(new RemotePartition(name, column, toBound(m.group(1)), toBound(m.group(2))));
+                } else {
+                    list.add(new RemotePartition(name, null, null, null));
+                }
+            }
+            rs.close();
+        } finally {
+            stmt.close();
+        }
+        return list;
+    }
+
+    private static final Pattern RANGE_KEY = Pattern.compile("RANGE \\((\\w+)\\)");
+    private static final Pattern RANGE_BOUND = Pattern.compile("FOR VALUES FROM \\((.+)\\) TO \\((.+)\\)");
+
+    /**
+     * @return the unquoted value, or null for MINVALUE and MAXVALUE
+     */
+    private static String toBound(String value) {
+        if("MINVALUE".equals(value) || "MAXVALUE".equals(value)) {
+            return null;
+        }
+        if(value.length() >= 2 && value.charAt(0) == '\'' && value.charAt(value.length() - 1) == '\'') {
+            return value.substring(1, value.length() - 1).replace("''", "'");
+        }
+        return value;
+    }
+
+    @Override
+    public String getAnalyzeQuery(String table) {
+        return "ANALYZE " + table;
+    }
+
+    @Override
+    public String getArrayElementTypeName(int sqlType) throws SQLException {
+        switch(sqlType) {
+            case Types.VARCHAR:
+                return "varchar";
+            case Types.FLOAT:
+                return "float4";
+            case Types.DOUBLE:
+                return "float8";
+            case Types.BOOLEAN:
+                return "bool";
+            case Types.TINYINT:
+            case Types.SMALLINT:
+                return "int2";
+            case Types.INTEGER:
+                return "int4";
+            case Types.BIGINT:
+                return "int8";
+            case Types.TIMESTAMP:
+                return "timestamp";
+            case Types.BINARY:
+                return "bytea";
+            default:
+                return super.getArrayElementTypeName(sqlType);
+        }
+    }
+
+    @Override
+    public void dropTableIfExists(Connection conn, String table) throws SQLException {
+        executeUpdate(conn, "DROP TABLE IF EXISTS " + table);
+    }
+
+}
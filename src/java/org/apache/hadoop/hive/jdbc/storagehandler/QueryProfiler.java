@@ -0,0 +1,160 @@
+/*
+ * Copyright 2013-2015 Makoto YUI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.jdbc.storagehandler;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Logs a tab-separated record for each query run by a split: the SQL, its bind parameters, the
+ * time to execute it and to fetch the rows, and the number and approximate bytes of the rows.
+ * With "mapred.jdbc.input.profile.explain", the plan of the first query is logged as well.
+ *
+ * The records can be routed to a side file by configuring the logger of this class, e.g.,
+ * log4j.logger.org.apache.hadoop.hive.jdbc.storagehandler.QueryProfiler=INFO,profile
+ *
+ * @see Constants#INPUT_PROFILE
+ */
+public final class QueryProfiler {
+    private static final Log LOG = LogFactory.getLog(QueryProfiler.class);
+
+    private final String taskId;
+    private final String splitId;
+    private final boolean explain;
+
+    private String query = null;
+    private Object[] params = null;
+    private long startNanos;
+    private long execNanos;
+    private long rows;
+    private long bytes;
+    private boolean explained = false;
+
+    private QueryProfiler(String taskId, String splitId, boolean explain) {
+        this.taskId = taskId;
+        this.splitId = splitId;
+        this.explain = explain;
+    }
+
+    /**
+     * @return null unless profiling is enabled
+     */
+    public static QueryProfiler newInstance(Configuration conf, long start, long length) {
+        if(!conf.getBoolean(Constants.INPUT_PROFILE, false)) {
+            return null;
+        }
+        String taskId = conf.get("mapred.task.id", "local");
+        boolean explain = conf.getBoolean(Constants.INPUT_PROFILE_EXPLAIN, false);
+        return new QueryProfiler(taskId, start + "+" + length, explain);
+    }
+
+    /**
+     * Logs the plan of the first query, if the dialect can explain it.
+     */
+    public void explain(Connection conn, JdbcDialect dialect, String sql, Object... bindParams) {
+        if(!explain || explained) {
+            return;
+        }
+        this.explained = true;
+        String explainQuery = dialect.getExplainQuery(sql);
+        if(explainQuery == null) {
+            return;
+        }
+        final StringBuilder plan = new StringBuilder(256);
+        Savepoint savepoint = null;
+        try {
+            // a failed statement aborts the transaction of the scan on PostgreSQL
+            if(!conn.getAutoCommit()) {
+                savepoint = conn.setSavepoint();
+            }
+            PreparedStatement stmt = conn.prepareStatement(explainQuery);
+            try {
+                for(int i = 0; i < bindParams.length; i++) {
+                    stmt.setObject(i + 1, bindParams[i]);
+                }
+                ResultSet rs = stmt.executeQuery();
+                while(rs.next()) {
+                    plan.append('\n').append(rs.getString(1));
+                }
+                rs.close();
+            } finally {
+                stmt.close();
+            }
+            if(savepoint != null) {
+                conn.releaseSavepoint(savepoint);
+            }
+        } catch (SQLException e) {
+            plan.append("\nfailed: ").append(e.getMessage());
+            if(savepoint != null) {
+                try {
+                    conn.rollback(savepoint);
+                } catch (SQLException re) {
+                    plan.append("\nfailed to roll back: ").append(re.getMessage());
+                }
+            }
+        }
+        LOG.info("task=" + taskId + "\tsplit=" + splitId + "\texplain=" + plan);
+    }
+
+    /**
+     * Called before executing a query.
+     */
+    public void start(String sql, Object... bindParams) {
+        this.query = sql;
+        this.params = bindParams;
+        this.startNanos = System.nanoTime();
+        this.execNanos = -1L;
+        this.rows = 0L;
+        this.bytes = 0L;
+    }
+
+    /**
+     * Called when the query returned a ResultSet.
+     */
+    public void executed() {
+        this.execNanos = System.nanoTime() - startNanos;
+    }
+
+    public void row(DbRecordWritable value) {
+        rows++;
+        bytes += value.getApproximateSize();
+    }
+
+    /**
+     * Logs the record of the current query, if any.
+     */
+    public void finish(String status) {
+        if(query == null) {
+            return;
+        }
+        final long elapsed = System.nanoTime() - startNanos;
+        final long fetchNanos = (execNanos == -1L) ? 0L : (elapsed - execNanos);
+        LOG.info("task=" + taskId + "\tsplit=" + splitId + "\tstatus=" + status + "\texec_ms="
+                + (Math.max(execNanos, 0L) / 1000000L) + "\tfetch_ms=" + (fetchNanos / 1000000L)
+                + "\trows=" + rows + "\tbytes=" + bytes + "\tparams=" + Arrays.toString(params)
+                + "\tquery=" + query);
+        this.query = null;
+    }
+
+}
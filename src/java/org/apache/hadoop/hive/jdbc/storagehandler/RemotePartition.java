@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013-2015 Makoto YUI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.jdbc.storagehandler;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.hive.jdbc.storagehandler.JdbcFilterPushdown.Comparison;
+
+/**
+ * A partition of a remote table, with the range of its partition key if known.
+ *
+ * @see JdbcDialect#getPartitions
+ */
+public final class RemotePartition {
+
+    // values comparable as strings: numbers, and dates and timestamps without a time zone
+    private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?");
+    private static final Pattern DATE = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+    private static final Pattern TIMESTAMP = Pattern.compile("\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}(\\.\\d+)?");
+
+    private final String name;
+    private final String column;
+    private final String lowerBound;
+    private final String upperBound;
+
+    /**
+     * @param name the name used in the FROM clause
+     * @param column the partition key, or null if unknown
+     * @param lowerBound the inclusive lower bound, or null if unbounded
+     * @param upperBound the exclusive upper bound, or null if unbounded
+     */
+    public RemotePartition(String name, String column, String lowerBound, String upperBound) {
+        this.name = name;
+        this.column = column;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return false if no row of the partition can satisfy all the comparisons
+     */
+    public boolean mayMatch(List<Comparison> comparisons) {
+        if(column == null) {
+            return true;
+        }
+        for(Comparison c : comparisons) {
+            if(c.getColumn().equalsIgnoreCase(column) && conflicts(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean conflicts(Comparison c) {
+        final String op = c.getOperator();
+        final int lo = compare(lowerBound, c.getValue());
+        final int hi = compare(upperBound, c.getValue());
+        if("=".equals(op)) {
+            return (lo != UNKNOWN && lo > 0) || (hi != UNKNOWN && hi <= 0);
+        } else if("<".equals(op)) {
+            return lo != UNKNOWN && lo >= 0;
+        } else if("<=".equals(op)) {
+            return lo != UNKNOWN && lo > 0;
+        } else if(">".equals(op) || ">=".equals(op)) {
+            // the upper bound is exclusive
+            return hi != UNKNOWN && hi <= 0;
+        }
+        return false;
+    }
+
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    /**
+     * @return the sign of bound - value, or UNKNOWN if unbounded or not comparable
+     */
+    private static int compare(String bound, Object value) {
+        if(bound == null) {
+            return UNKNOWN;
+        }
+        if(value instanceof Number) {
+            if(!NUMBER.matcher(bound).matches()) {
+                return UNKNOWN;
+            }
+            int cmp = new BigDecimal(bound).compareTo(new BigDecimal(value.toString()));
+            return Integer.signum(cmp);
+        }
+        if(value instanceof String) {
+            String b = toTimestamp(bound);
+            String v = toTimestamp((String) value);
+            if(b == null || v == null) {
+                return UNKNOWN;
+            }
+            return Integer.signum(b.compareTo(v));
+        }
+        return UNKNOWN;
+    }
+
+    private static String toTimestamp(String s) {
+        if(DATE.matcher(s).matches()) {
+            return s + " 00:00:00";
+        } else if(TIMESTAMP.matcher(s).matches()) {
+            return s;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return name + " [" + lowerBound + ", " + upperBound + ')';
+    }
+
+}